@@ -0,0 +1,18 @@
+import client.LoadGenerator;
+import common.Settings;
+
+public class LoadTestApplication {
+
+    //drive load against the server already running on this machine, options are given as system properties
+    public static void main(String[] args) throws InterruptedException {
+        LoadGenerator lgGenerator = new LoadGenerator(
+                Settings.getInt(Settings.LOAD_CLIENTS, 50),
+                Settings.getLong(Settings.LOAD_DURATION, 30) * 1000,
+                LoadGenerator.parseMix(Settings.getString(Settings.LOAD_MIX
+                        , "GETDISHES=40,GETORDERS=20,CHECKOUT=15,LOGIN=10,CANCELORDER=10,REGISTER=5")),
+                Settings.getLong(Settings.LOAD_THINK_TIME, 0));
+        lgGenerator.setSessionsPerConnection(Settings.getInt(Settings.LOAD_SESSIONS_PER_CONNECTION, 1));
+        lgGenerator.run();
+        System.exit(0);
+    }
+}
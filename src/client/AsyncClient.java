@@ -0,0 +1,195 @@
+package client;
+
+import common.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Asynchronous client class
+ * Sends each request to the business server without waiting, returning a future that completes when its reply arrives
+ * Many requests can be in flight at once and the futures can be composed, so no thread is held up waiting on the server
+ * Once a user has registered or logged in, requests for them carry only their session token instead of the whole user
+ * Many asynchronous clients can share one connection, each as its own logical session opened with openSession
+ */
+public class AsyncClient implements AsyncClientInterface {
+
+    private CommsClient comms;
+    private int iConnectionIndex;
+    private List<UpdateListener> updateListeners = new CopyOnWriteArrayList<>();
+    private CatalogCache<Dish> ccDishes = new CatalogCache<>(Dish.class);
+    private CatalogCache<Postcode> ccPostcodes = new CatalogCache<>(Postcode.class);
+    private Map<String, List<Order>> hmOrders = new ConcurrentHashMap<>();
+    private Map<String, String> hmSessionTokens = new ConcurrentHashMap<>();
+
+    //constructor, connecting to the server
+    public AsyncClient() throws IOException {
+        this(new CommsClient());
+    }
+
+    //constructor, over an existing connection to the server
+    public AsyncClient(CommsClient comms) {
+        this(comms, comms.getConnectionIndex());
+    }
+
+    //constructor, for a logical session over an existing connection
+    private AsyncClient(CommsClient comms, int iSessionIndex) {
+        this.comms = comms;
+        this.iConnectionIndex = iSessionIndex;
+        this.comms.addPushListener(iSessionIndex, this::receivePush);
+    }
+
+    //open a new logical session over a shared connection, for one of many customers served by the same program
+    public static CompletableFuture<AsyncClient> openSession(CommsClient comms) {
+        return comms.openSession().thenApply(iSessionIndex -> new AsyncClient(comms, iSessionIndex));
+    }
+
+    //close this client's logical session, the connection it shares stays open
+    public CompletableFuture<Object> closeSession() {
+        if(iConnectionIndex == comms.getConnectionIndex()) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Not a logical session"));
+        }
+        return comms.closeSession(iConnectionIndex);
+    }
+
+    //the index this client uses in its messages, either its connection's or its logical session's
+    public int getSessionIndex() {
+        return this.iConnectionIndex;
+    }
+
+    @Override
+    public CompletableFuture<User> register(String username, String password, String address, Postcode postcode) {
+        return this.getComms().sendRequest(new MessageHeader(Opcode.REGISTER, iConnectionIndex, username, password, address), postcode)
+                .thenCompose(oReply -> this.startSession((UserSession) oReply));
+    }
+
+    @Override
+    public CompletableFuture<User> login(String username, String password) {
+        return this.getComms().sendRequest(new MessageHeader(Opcode.LOGIN, iConnectionIndex, username, password))
+                .thenCompose(oReply -> this.startSession((UserSession) oReply));
+    }
+
+    //keep the session token of a user who has registered or logged in, then subscribe to their orders
+    private CompletableFuture<User> startSession(UserSession usSession) {
+        if(usSession == null) return CompletableFuture.completedFuture(null);
+        hmSessionTokens.put(usSession.getUser().getName(), usSession.getToken());
+        return this.subscribeOrders(usSession.getUser()).thenApply(lOrders -> usSession.getUser());
+    }
+
+    //the session token for a user, so that requests can be made on their behalf
+    public String getSessionToken(User user) {
+        String szToken = hmSessionTokens.get(user.getName());
+        if(szToken == null) {
+            throw new IllegalStateException("User is not logged in: " + user.getName());
+        }
+        return szToken;
+    }
+
+    //send a request on behalf of a user, failing it if the user is not logged in on this client
+    private CompletableFuture<Object> sendUserRequest(Opcode opOperation, User user, Object... oPayload) {
+        try {
+            return this.getComms().sendRequest(new MessageHeader(opOperation, iConnectionIndex, this.getSessionToken(user)), oPayload);
+        }
+        catch (IllegalStateException ise) {
+            return CompletableFuture.failedFuture(ise);
+        }
+    }
+
+    //subscribe to the orders of a user, the server replies with their current orders and then pushes every change to them
+    private CompletableFuture<List<Order>> subscribeOrders(User user) {
+        if(user == null) return CompletableFuture.completedFuture(null);
+        return this.sendUserRequest(Opcode.SUBSCRIBE, user).thenApply(oReply -> {
+            List<Order> lOrders = toOrders(oReply);
+            if(lOrders != null) {
+                hmOrders.putIfAbsent(user.getName(), lOrders);
+            }
+            return lOrders;
+        });
+    }
+
+    //handle a message pushed by the server
+    private void receivePush(Object[] oMessage) {
+        MessageHeader mhHeader = MessageHeader.of(oMessage[0]);
+        if(mhHeader != null && mhHeader.getOpcode() == Opcode.ORDERUPDATE) {
+            List<Order> lOrders = toOrders(oMessage[3]);
+            if(lOrders != null) {
+                hmOrders.put((String) oMessage[2], lOrders);
+                this.notifyUpdate();
+            }
+        }
+    }
+
+    //the orders sent by the server, checking each one is an order, or null if none were sent
+    private static List<Order> toOrders(Object oOrders) {
+        if(!(oOrders instanceof List)) return null;
+        List<Order> lOrders = new ArrayList<>();
+        for(Object oOrder : (List<?>) oOrders) {
+            lOrders.add((Order) oOrder);
+        }
+        return lOrders;
+    }
+
+    //only the postcodes changed since the last call are fetched
+    @Override
+    public CompletableFuture<List<Postcode>> getPostcodes() {
+        return this.getComms().sendRequest(new MessageHeader(Opcode.SYNCPOSTCODES, iConnectionIndex), ccPostcodes.getVersion())
+                .thenApply(oReply -> ccPostcodes.apply((CatalogDelta<?>) oReply));
+    }
+
+    //only the dishes changed since the last call are fetched
+    @Override
+    public CompletableFuture<List<Dish>> getDishes() {
+        return this.getComms().sendRequest(new MessageHeader(Opcode.SYNCDISHES, iConnectionIndex), ccDishes.getVersion())
+                .thenApply(oReply -> ccDishes.apply((CatalogDelta<?>) oReply));
+    }
+
+    @Override
+    public CompletableFuture<Order> checkoutBasket(User user) {
+        CompletableFuture<Object> cfReply = this.sendUserRequest(Opcode.CHECKOUT, user, new HashMap<>(user.getBasket()));
+        user.getBasket().clear();
+        return cfReply.thenApply(oReply -> (Order) oReply);
+    }
+
+    //orders are kept up to date by the server's pushes, so they only need to be fetched once
+    @Override
+    public CompletableFuture<List<Order>> getOrders(User user) {
+        List<Order> lOrders = hmOrders.get(user.getName());
+        if(lOrders != null) {
+            return CompletableFuture.completedFuture(lOrders);
+        }
+        return this.subscribeOrders(user).thenApply(lFetched -> lFetched == null ? new ArrayList<>() : lFetched);
+    }
+
+    @Override
+    public CompletableFuture<OrderPage> queryOrders(User user, OrderQuery query) {
+        return this.sendUserRequest(Opcode.QUERYORDERS, user, query).thenApply(oReply -> (OrderPage) oReply);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> cancelOrder(Order order) {
+        return this.sendUserRequest(Opcode.CANCELORDER, order.getCustomer(), order.getId())
+                .thenApply(oReply -> Boolean.TRUE.equals(oReply));
+    }
+
+    @Override
+    public void addUpdateListener(UpdateListener listener) {
+        updateListeners.add(listener);
+    }
+
+    @Override
+    public void notifyUpdate() {
+        for(UpdateListener u : updateListeners) {
+            u.updated(new UpdateEvent());
+        }
+    }
+
+    private CommsClient getComms() {
+        return this.comms;
+    }
+}
@@ -0,0 +1,90 @@
+package client;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import common.*;
+
+public interface AsyncClientInterface {
+
+	//Users
+
+	/**
+	 * Register a new user on the system. The future completes with the new user, or null if registration fails.
+	 * @param username username
+	 * @param password password
+	 * @param address address
+	 * @param postcode valid postcode
+	 * @return future of the newly registered user
+	 */
+	public CompletableFuture<User> register(String username, String password, String address, Postcode postcode);
+
+	/**
+	 * Login a previously registered user on the system. The future completes with the user, or null if login fails.
+	 * @param username username
+	 * @param password password
+	 * @return future of the logged in user
+	 */
+	public CompletableFuture<User> login(String username, String password);
+
+	/**
+	 * Get the available postcodes in the system
+	 * @return future of the list of postcodes
+	 */
+	public CompletableFuture<List<Postcode>> getPostcodes();
+
+	//Dishes
+
+	/**
+	 * Get all the available dishes
+	 * @return future of the list of available dishes
+	 */
+	public CompletableFuture<List<Dish>> getDishes();
+
+	//Basket
+
+	/**
+	 * Checkout a basket into a new order. The basket is cleared once the order has been sent.
+	 * @param user user of basket
+	 * @return future of the new order
+	 */
+	public CompletableFuture<Order> checkoutBasket(User user);
+
+	//Orders
+
+	/**
+	 * Get the current orders for a given user
+	 * @param user user to lookup
+	 * @return future of the list of orders
+	 */
+	public CompletableFuture<List<Order>> getOrders(User user);
+
+	/**
+	 * Get one page of a given user's orders matching a query, including their order history
+	 * @param user user to lookup
+	 * @param query the filters, ordering and position of the page, its customer is always the given user
+	 * @return future of the page of orders
+	 */
+	public CompletableFuture<OrderPage> queryOrders(User user, OrderQuery query);
+
+	/**
+	 * Cancel a given order
+	 * @param order to cancel
+	 * @return future completed with true if the order was cancelled
+	 */
+	public CompletableFuture<Boolean> cancelOrder(Order order);
+
+	//Listeners
+
+	/**
+	 * Add a new update listener to the client. This should be notified when any model changes occur that require the UI to update.
+	 * @param listener An update listener to be informed of all model changes.
+	 */
+	public void addUpdateListener(UpdateListener listener);
+
+	/**
+	 * Notify all listeners of a model update.
+	 */
+	public void notifyUpdate();
+
+}
@@ -0,0 +1,48 @@
+package client;
+
+import common.CatalogDelta;
+import common.Model;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Catalog cache class that keeps the client's copy of a server catalog, such as the dishes or postcodes
+ * Remembers the last version it has seen, so that only the changes since then need to be fetched from the server
+ */
+class CatalogCache<T extends Model> {
+
+    private Class<T> cType;
+    private LinkedHashMap<String, T> hmEntries = new LinkedHashMap<>();
+    private long lVersion = 0;
+
+    //constructor, taking the type of entry in the catalog so that the entries of a delta can be checked against it
+    public CatalogCache(Class<T> cType) {
+        this.cType = cType;
+    }
+
+    //the last version of the catalog that has been applied
+    public synchronized long getVersion() {
+        return this.lVersion;
+    }
+
+    //apply a delta from the server, returning the entries now in the catalog
+    //a changed entry of the wrong type throws a ClassCastException before anything is applied
+    public synchronized List<T> apply(CatalogDelta<?> cdDelta) {
+        if(cdDelta != null && cdDelta.getVersion() >= this.lVersion) {
+            List<T> lChanged = new ArrayList<>();
+            for(Object oChanged : cdDelta.getChanged()) {
+                lChanged.add(cType.cast(oChanged));
+            }
+            for(String szRemoved : cdDelta.getRemoved()) {
+                hmEntries.remove(szRemoved);
+            }
+            for(T tChanged : lChanged) {
+                hmEntries.put(tChanged.getName(), tChanged);
+            }
+            this.lVersion = cdDelta.getVersion();
+        }
+        return new ArrayList<>(hmEntries.values());
+    }
+}
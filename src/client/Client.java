@@ -4,82 +4,53 @@ import common.*;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Client class
  * Handles all client side processing of data and communication to the business server
+ * Requests to the server are made through the asynchronous client, waiting on each reply for the blocking interface
  */
 public class Client implements ClientInterface {
 
-    private CommsClient comms;
-    private int iConnectionIndex;
-    private List<UpdateListener> updateListeners = new ArrayList<>();
+    private AsyncClient acClient;
 
     //constructor
     public Client() {
         try {
-            comms = new CommsClient();
-            Object connectedMessage = this.getComms().getMessage();
-            iConnectionIndex = Integer.parseInt(((String) connectedMessage ).split(":")[1]);
+            acClient = new AsyncClient();
         }
         catch (IOException io) {
             io.printStackTrace();
         }
     }
 
+    //get the asynchronous client underneath, for callers that do not want to wait on the server
+    public AsyncClient getAsyncClient() {
+        return this.acClient;
+    }
+
     @Override
     public User register(String username, String password, String address, Postcode postcode) {
-        Object[] oMessage = new Object[2];
-        oMessage[0] = "REGISTER:"
-                + iConnectionIndex + ":"
-                + username + ":"
-                + password + ":"
-                + address;
-        oMessage[1] = postcode;
-
-        this.getComms().sendMessage(oMessage);
-        User uNewUser = (User) this.getComms().getMessage();
-        return uNewUser;
+        return this.awaitReply(acClient.register(username, password, address, postcode));
     }
 
     @Override
     public User login(String username, String password) {
-        Object[] oMessage = new Object[]{"LOGIN:"
-                + iConnectionIndex + ":"
-                + username + ":"
-                + password};
-        this.getComms().sendMessage(oMessage);
-        User uLogin = (User) this.getComms().getMessage();
-        return uLogin;
+        return this.awaitReply(acClient.login(username, password));
     }
 
     @Override
     public List<Postcode> getPostcodes() {
-        Object[] oMessage = new Object[]{"GETPOSTCODES:" + iConnectionIndex};
-        this.getComms().sendMessage(oMessage);
-        try {
-            Thread.currentThread().sleep(100);
-        }
-        catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        }
-        return (List<Postcode>) this.getComms().getMessage();
+        return this.awaitReply(acClient.getPostcodes());
     }
 
     @Override
     public List<Dish> getDishes() {
-        Object[] oMessage = new Object[]{"GETDISHES:" + iConnectionIndex};
-        this.getComms().sendMessage(oMessage);
-        try {
-            Thread.currentThread().sleep(100);
-        }
-        catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        }
-        return (List<Dish>) this.getComms().getMessage();
+        return this.awaitReply(acClient.getDishes());
     }
 
     @Override
@@ -121,15 +92,7 @@ public class Client implements ClientInterface {
 
     @Override
     public Order checkoutBasket(User user) {
-        Object[] oMessage = new Object[3];
-        oMessage[0] = "CHECKOUT:"
-                + iConnectionIndex;
-        oMessage[1] = user;
-        oMessage[2] = new HashMap<>(user.getBasket());
-
-        this.getComms().sendMessage(oMessage);
-        this.clearBasket(user);
-        return (Order) this.getComms().getMessage();
+        return this.awaitReply(acClient.checkoutBasket(user));
     }
 
     @Override
@@ -139,18 +102,14 @@ public class Client implements ClientInterface {
 
     @Override
     public List<Order> getOrders(User user) {
-        Object[] oMessage = new Object[2];
-        oMessage[0] = "GETORDERS:"
-                + iConnectionIndex;
-        oMessage[1] = user;
-        this.getComms().sendMessage(oMessage);
-        try {
-            Thread.currentThread().sleep(100);
-        }
-        catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
-        }
-        return (List<Order>) this.getComms().getMessage();
+        List<Order> lOrders = this.awaitReply(acClient.getOrders(user));
+        return lOrders == null ? new ArrayList<>() : lOrders;
+    }
+
+    @Override
+    public OrderPage queryOrders(User user, OrderQuery query) {
+        OrderPage opPage = this.awaitReply(acClient.queryOrders(user, query));
+        return opPage == null ? new OrderPage(new ArrayList<>(), false) : opPage;
     }
 
     @Override
@@ -175,28 +134,33 @@ public class Client implements ClientInterface {
 
     @Override
     public void cancelOrder(Order order) {
-        Object[] oMessage = new Object[2];
-        oMessage[0] = "CANCELORDER:" + iConnectionIndex;
-        oMessage[1] = order;
-
-        this.getComms().sendMessage(oMessage);
+        //the reply is not needed, so do not wait on it
+        acClient.cancelOrder(order);
         this.notifyUpdate();
     }
 
     @Override
     public void addUpdateListener(UpdateListener listener) {
-        updateListeners.add(listener);
+        acClient.addUpdateListener(listener);
     }
 
     @Override
     public void notifyUpdate() {
-        for(UpdateListener u : updateListeners) {
-            u.updated(new UpdateEvent());
-        }
+        acClient.notifyUpdate();
     }
 
-    private CommsClient getComms() {
-        return this.comms;
+    //wait for the reply to a request, returning null if the request failed
+    private <T> T awaitReply(CompletableFuture<T> cfReply) {
+        try {
+            return cfReply.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        catch (ExecutionException ee) {
+            ee.printStackTrace();
+        }
+        return null;
     }
 
 }
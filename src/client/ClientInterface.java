@@ -109,6 +109,14 @@ public interface ClientInterface {
 	 */
 	public List<Order> getOrders(User user);
 	
+	/**
+	 * Get one page of a given user's orders matching a query, including their order history
+	 * @param user user to lookup
+	 * @param query the filters, ordering and position of the page
+	 * @return page of orders
+	 */
+	public OrderPage queryOrders(User user, OrderQuery query);
+	
 	/**
 	 * Return whether an order is complete or is still in progress
 	 * @param order order to lookup
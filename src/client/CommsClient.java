@@ -1,24 +1,78 @@
 package client;
 
+import common.Endpoints;
+import common.MessageHeader;
+import common.Opcode;
+import common.Settings;
+
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
 
 /**
  * Comms class for the clients
- * Only connects to one server at a time, but can handle multiple messages at once
+ * Only connects to one server at a time, the first of the configured endpoints to answer, but can handle multiple messages at once
+ * Every request carries a correlation ID, so many requests can be in flight on the one socket and each reply goes to its own future
+ * A request the server is too busy to take is sent again after the wait the server asks for
+ * A request whose reply does not come within the request timeout, or that cannot be written, fails instead of waiting forever
+ * Many logical customer sessions can share the one socket, each with its own index, and pushes are routed to the session they are for
+ * Pushes are given to their listeners on a thread of their own, in the order they arrived, so a listener that waits on a reply
+ * never holds up the thread reading that reply
  * Made by Alex Lockwood
  */
 public class CommsClient {
+
+    private static final int CONNECT_TIMEOUT = 5000;
+
+    /**
+     * Class that holds a request waiting on its reply, kept so it can be sent again if the server is busy
+     */
+    private static class PendingRequest {
+        private Object[] oMessage;
+        private CompletableFuture<Object> cfReply = new CompletableFuture<>();
+        private int iAttempts;
+
+        //constructor
+        public PendingRequest(Object[] oMessage) {
+            this.oMessage = oMessage;
+        }
+    }
+
     private CommsServerConn cccServerConn;
-    private LinkedBlockingQueue<Object> qMessages;
+    private ConcurrentHashMap<Long, PendingRequest> hmPendingReplies;
+    private AtomicLong lNextCorrelationId;
+    private Map<Integer, List<Consumer<Object[]>>> hmPushListeners = new ConcurrentHashMap<>();
+    private ScheduledExecutorService sesScheduler;
+    private ExecutorService esPushes;
+    private int iBusyRetries;
+    private long lRequestTimeout;
+    private volatile Throwable tClosed;
     private Socket sClientSocket;
 
     //constructor
     public CommsClient() throws IOException {
-        this.qMessages = new LinkedBlockingQueue<>();
-        this.sClientSocket = new Socket("localhost", 60010);
-        this.cccServerConn = new CommsServerConn(this.sClientSocket, qMessages);
+        this.hmPendingReplies = new ConcurrentHashMap<>();
+        this.lNextCorrelationId = new AtomicLong();
+        this.iBusyRetries = Settings.getInt(Settings.COMMS_BUSY_RETRIES, 5);
+        this.lRequestTimeout = Settings.getLong(Settings.COMMS_REQUEST_TIMEOUT, 30);
+        this.sesScheduler = Executors.newSingleThreadScheduledExecutor(rScheduled -> {
+            Thread tScheduled = new Thread(rScheduled, "comms-scheduler");
+            tScheduled.setDaemon(true);
+            return tScheduled;
+        });
+        this.esPushes = Executors.newSingleThreadExecutor(rPush -> {
+            Thread tPush = new Thread(rPush, "comms-pushes");
+            tPush.setDaemon(true);
+            return tPush;
+        });
+        this.sClientSocket = this.connect();
+        this.cccServerConn = new CommsServerConn(this.sClientSocket, this);
+        this.startHeartbeat(Settings.getLong(Settings.COMMS_HEARTBEAT, 10));
 
         //when the connection ends, close the socket
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
@@ -31,19 +85,193 @@ public class CommsClient {
         }));
     }
 
-    //sending a message to the server
-    public void sendMessage(Object[] oMessage) {
-        cccServerConn.writeMessage(oMessage);
+    //connect to the first of the server's endpoints that answers
+    private Socket connect() throws IOException {
+        IOException ioLast = null;
+        for(InetSocketAddress isaEndpoint : Endpoints.getClientEndpoints()) {
+            Socket sSocket = new Socket();
+            try {
+                sSocket.connect(isaEndpoint, CONNECT_TIMEOUT);
+                return sSocket;
+            }
+            catch (IOException io) {
+                sSocket.close();
+                ioLast = io;
+            }
+        }
+        throw ioLast;
+    }
+
+    //regularly tell the server this client is still here, so it is not closed as idle
+    private void startHeartbeat(long lInterval) {
+        if(lInterval <= 0) return;
+
+        sesScheduler.scheduleAtFixedRate(() -> {
+            if(sClientSocket.isClosed()) {
+                sesScheduler.shutdown();
+                return;
+            }
+            try {
+                this.sendMessage(new Object[]{new MessageHeader(Opcode.HEARTBEAT, this.getConnectionIndex()), 0L});
+            }
+            catch (IOException io) {
+                //the connection has gone, the thread listening on it fails the requests still waiting
+            }
+        }, lInterval, lInterval, TimeUnit.SECONDS);
+    }
+
+    //get the index the server gave this client when it connected
+    public int getConnectionIndex() {
+        return cccServerConn.getConnectionIndex();
+    }
+
+    //sending a message to the server, a message that cannot be written closes the connection
+    public void sendMessage(Object[] oMessage) throws IOException {
+        try {
+            cccServerConn.writeMessage(oMessage);
+        }
+        catch (IOException io) {
+            cccServerConn.close();
+            throw io;
+        }
+    }
+
+    //send a request to the server, the returned future is completed when the reply with the same correlation ID arrives
+    //it fails if the request cannot be written, the connection closes or no reply comes within the request timeout
+    public CompletableFuture<Object> sendRequest(MessageHeader mhHeader, Object... oPayload) {
+        long lCorrelationId = lNextCorrelationId.incrementAndGet();
+        Object[] oMessage = new Object[oPayload.length + 2];
+        oMessage[0] = mhHeader;
+        oMessage[1] = lCorrelationId;
+        System.arraycopy(oPayload, 0, oMessage, 2, oPayload.length);
+
+        PendingRequest prRequest = new PendingRequest(oMessage);
+        hmPendingReplies.put(lCorrelationId, prRequest);
+        if(lRequestTimeout > 0) {
+            prRequest.cfReply.orTimeout(lRequestTimeout, TimeUnit.SECONDS)
+                    .whenComplete((oReply, tFailure) -> hmPendingReplies.remove(lCorrelationId, prRequest));
+        }
+
+        //a request made after the connection closed would never be failed by it, so it is failed here
+        if(tClosed != null) {
+            this.failRequest(lCorrelationId, tClosed);
+        }
+        else this.sendRequest(lCorrelationId, prRequest);
+        return prRequest.cfReply;
+    }
+
+    //write a request, failing it if it cannot be written, or cannot be encoded such as for an opcode the codec does not know
+    private void sendRequest(long lCorrelationId, PendingRequest prRequest) {
+        try {
+            this.sendMessage(prRequest.oMessage);
+        }
+        catch (IOException | RuntimeException e) {
+            this.failRequest(lCorrelationId, e);
+        }
     }
 
-    //get the most recent message from the queue
-    public Object getMessage() {
+    //fail a request that is still waiting on its reply
+    private void failRequest(long lCorrelationId, Throwable tCause) {
+        PendingRequest prRequest = hmPendingReplies.remove(lCorrelationId);
+        if(prRequest != null) {
+            prRequest.cfReply.completeExceptionally(tCause);
+        }
+    }
+
+    //the server was too busy to take a request, send it again after the wait it asked for or give up after too many tries
+    private void retryRequest(long lCorrelationId, long lRetryAfter) {
+        PendingRequest prRequest = hmPendingReplies.get(lCorrelationId);
+        if(prRequest == null) return;
+
+        if(++prRequest.iAttempts > iBusyRetries) {
+            this.failRequest(lCorrelationId, new ServerBusyException(lRetryAfter));
+            return;
+        }
+
+        //back off a little more on every try
         try {
-            return this.qMessages.take();
+            sesScheduler.schedule(() -> this.sendRequest(lCorrelationId, prRequest)
+                    , lRetryAfter * prRequest.iAttempts, TimeUnit.MILLISECONDS);
+        }
+        catch (RejectedExecutionException ree) {
+            this.failRequest(lCorrelationId, ree);
+        }
+    }
+
+    //add a listener for the messages the server pushes without being asked, such as order updates
+    public void addPushListener(Consumer<Object[]> pushListener) {
+        this.addPushListener(this.getConnectionIndex(), pushListener);
+    }
+
+    //add a listener for the messages the server pushes to one of the logical sessions on this connection
+    public void addPushListener(int iSessionIndex, Consumer<Object[]> pushListener) {
+        hmPushListeners.computeIfAbsent(iSessionIndex, iKey -> new CopyOnWriteArrayList<>()).add(pushListener);
+    }
+
+    //open a new logical session over this connection, the future is completed with the index the session uses in its messages
+    public CompletableFuture<Integer> openSession() {
+        return this.sendRequest(new MessageHeader(Opcode.OPENSESSION, this.getConnectionIndex())).thenApply(oReply -> (Integer) oReply);
+    }
+
+    //close a logical session, the server forgets its subscriptions and the users logged in on it
+    public CompletableFuture<Object> closeSession(int iSessionIndex) {
+        hmPushListeners.remove(iSessionIndex);
+        return this.sendRequest(new MessageHeader(Opcode.CLOSESESSION, iSessionIndex));
+    }
+
+    //give a pushed message to the listeners of the session it is for, on the push thread rather than the thread reading the socket
+    private void pushMessage(int iSessionIndex, Object[] oMessage) {
+        List<Consumer<Object[]>> pushListeners = hmPushListeners.get(iSessionIndex);
+        if(pushListeners == null) return;
+        esPushes.execute(() -> {
+            for(Consumer<Object[]> pushListener : pushListeners) {
+                try {
+                    pushListener.accept(oMessage);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+            }
+        });
+    }
+
+    //called by the connection for every message read, replies go to their future and pushes to the listeners
+    void receiveMessage(Object oMessage) {
+        if(!(oMessage instanceof Object[]) || ((Object[]) oMessage).length == 0) return;
+        Object[] oParts = (Object[]) oMessage;
+        MessageHeader mhHeader = MessageHeader.of(oParts[0]);
+        Opcode op = mhHeader == null ? null : mhHeader.getOpcode();
+
+        if(op == Opcode.REPLY && oParts.length == 3 && oParts[1] instanceof Long) {
+            PendingRequest prRequest = hmPendingReplies.remove((Long) oParts[1]);
+            if(prRequest != null) {
+                prRequest.cfReply.complete(oParts[2]);
+            }
+        }
+        else if(op == Opcode.BUSY && oParts.length == 3 && oParts[1] instanceof Long) {
+            this.retryRequest((Long) oParts[1], (Long) oParts[2]);
+        }
+        else if(op == Opcode.ERROR && oParts.length == 3) {
+            //the server could not process the request, the error has no correlation ID if the request's could not be read
+            if(oParts[1] instanceof Long) {
+                this.failRequest((Long) oParts[1], new IOException("Server error: " + oParts[2]));
+            }
+            else System.out.println("Server error: " + oParts[2]);
         }
-        catch(InterruptedException ie) {
-            ie.printStackTrace();
+        else if(op == Opcode.SESSION && oParts.length == 3 && oParts[2] instanceof List) {
+            //a push for a logical session, wrapped with the session's index
+            this.pushMessage(mhHeader.getConnectionIndex(), ((List<?>) oParts[2]).toArray());
+        }
+        else {
+            this.pushMessage(this.getConnectionIndex(), oParts);
+        }
+    }
+
+    //called by the connection when the socket has closed, failing every request still waiting on a reply and any made later
+    void connectionClosed(Throwable tCause) {
+        this.tClosed = tCause;
+        for(Long lCorrelationId : hmPendingReplies.keySet()) {
+            this.failRequest(lCorrelationId, tCause);
         }
-        return null;
     }
 }
@@ -1,40 +1,56 @@
 package client;
 
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import common.Frames;
+import common.Handshake;
+import common.MessageCodec;
+
+import java.io.*;
 import java.net.Socket;
-import java.util.concurrent.LinkedBlockingQueue;
 
 /**
  * Class that handles the client's connection to the server
+ * Messages are sent and received as length-prefixed frames, so either of the server's comms engines can read them
  * Made by Alex Lockwood
  */
 public class CommsServerConn {
     private Socket sClientSocket;
-    private LinkedBlockingQueue<Object> qMessages;
-    private ObjectInputStream oisInput;
-    private ObjectOutputStream oosOutput;
+    private CommsClient ccComms;
+    private DataInputStream disInput;
+    private DataOutputStream dosOutput;
+    private MessageCodec mcCodec;
+    private int iConnectionIndex;
 
     //constructor
-    public CommsServerConn(Socket sClientSocket, LinkedBlockingQueue<Object> qMessages) throws IOException {
+    public CommsServerConn(Socket sClientSocket, CommsClient ccComms) throws IOException {
         this.sClientSocket = sClientSocket;
-        this.qMessages = qMessages;
-        //create the object streams
-        oisInput = new ObjectInputStream(sClientSocket.getInputStream());
-        oosOutput = new ObjectOutputStream(sClientSocket.getOutputStream());
+        this.ccComms = ccComms;
+        //create the data streams
+        disInput = new DataInputStream(new BufferedInputStream(sClientSocket.getInputStream()));
+        dosOutput = new DataOutputStream(new BufferedOutputStream(sClientSocket.getOutputStream()));
+
+        //offer this client's features to the server, and use the codec for the features the server accepts
+        Frames.writeFrame(dosOutput, Handshake.createHello(Handshake.getLocalFlags()));
+        dosOutput.flush();
+        int[] iWelcome = Handshake.readWelcome(Frames.readFrame(disInput));
+        this.mcCodec = Handshake.getCodec(iWelcome[0]);
+        this.iConnectionIndex = iWelcome[1];
 
         //create a new thread that listens for new objects
         Runnable rReadMessage = (() -> {
             while(true) {
-                synchronized (CommsServerConn.this) {
-                    try {
-                        Object oMessage = oisInput.readObject();
-                        qMessages.put(oMessage);
-                    }
-                    catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                try {
+                    Object oMessage = mcCodec.decode(Frames.readFrame(disInput));
+                    ccComms.receiveMessage(oMessage);
+                }
+                catch (IOException io) {
+                    //the connection has gone, so stop listening and fail every request still waiting on a reply
+                    if(!(io instanceof EOFException) && !sClientSocket.isClosed()) io.printStackTrace();
+                    this.close();
+                    ccComms.connectionClosed(io);
+                    return;
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
                 }
             }
         });
@@ -46,8 +62,8 @@ public class CommsServerConn {
         //when the connection closes, close the streams
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             try {
-                oisInput.close();
-                oosOutput.close();
+                disInput.close();
+                dosOutput.close();
             }
             catch (IOException io) {
                 io.printStackTrace();
@@ -55,11 +71,23 @@ public class CommsServerConn {
         }));
     }
 
+    //get the index the server gave this connection in the handshake
+    public int getConnectionIndex() {
+        return this.iConnectionIndex;
+    }
+
     //write an object to the output stream
-    public void writeMessage(Object[] oMessage) {
+    public synchronized void writeMessage(Object[] oMessage) throws IOException {
+        Frames.writeFrame(dosOutput, mcCodec.encode(oMessage));
+        dosOutput.flush();
+    }
+
+    //close the socket, which also stops the thread listening on it
+    public void close() {
         try {
-            oosOutput.writeObject(oMessage);
-        } catch (IOException io) {
+            sClientSocket.close();
+        }
+        catch (IOException io) {
             io.printStackTrace();
         }
     }
@@ -0,0 +1,285 @@
+package client;
+
+import common.*;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Load generator class that drives many simulated client sessions against a running server without a GUI
+ * Each session has its own user and runs a closed loop of requests picked at random from a weighted mix
+ * Sessions have a connection each, or share connections as logical sessions when more than one session per connection is asked for
+ * The latency of every request is recorded per operation, and a report of throughput and percentiles is printed at the end
+ */
+public class LoadGenerator {
+
+    //the operations that can be put in the mix
+    public static final Opcode[] SUPPORTED = {
+            Opcode.REGISTER, Opcode.LOGIN, Opcode.GETDISHES, Opcode.CHECKOUT, Opcode.GETORDERS, Opcode.QUERYORDERS, Opcode.CANCELORDER};
+
+    private static final String PASSWORD = "load";
+    private static final long REQUEST_TIMEOUT = 30;
+
+    private int iClients;
+    private long lDuration;
+    private long lThinkTime;
+    private int iSessionsPerConnection = 1;
+    private Map<Integer, CommsClient> hmSharedConnections = new HashMap<>();
+    private Opcode[] opMix;
+    private int[] iCumulativeWeights;
+    private EnumMap<Opcode, LatencyHistogram> hmLatencies = new EnumMap<>(Opcode.class);
+    private EnumMap<Opcode, AtomicLong> hmErrors = new EnumMap<>(Opcode.class);
+    private AtomicLong lSetupFailures = new AtomicLong();
+    private AtomicLong lNextUser = new AtomicLong();
+    private String szRunId = Long.toString(System.currentTimeMillis(), 36);
+
+    /**
+     * Class for one simulated client, with its own connection to the server and its own user
+     */
+    private class Session implements Runnable {
+        private CommsClient comms;
+        private AsyncClient acClient;
+        private User user;
+        private String szName;
+        private Postcode pcPostcode;
+        private List<Dish> lDishes = new ArrayList<>();
+        private Deque<Order> dqOrders = new ArrayDeque<>();
+        private Random r = new Random();
+        private int iSession;
+        private long lDeadline;
+        private CountDownLatch cdlFinished;
+
+        //constructor
+        public Session(int iSession, long lDeadline, CountDownLatch cdlFinished) {
+            this.iSession = iSession;
+            this.lDeadline = lDeadline;
+            this.cdlFinished = cdlFinished;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if(!this.setUp()) {
+                    lSetupFailures.incrementAndGet();
+                    return;
+                }
+
+                while(System.currentTimeMillis() < lDeadline) {
+                    Opcode op = LoadGenerator.this.pickOperation(r);
+                    long lStart = System.nanoTime();
+                    Boolean bSucceeded;
+                    try {
+                        bSucceeded = this.perform(op);
+                    }
+                    catch (Exception e) {
+                        bSucceeded = false;
+                    }
+
+                    //an operation with nothing to act on, such as cancelling with no orders, is not counted
+                    if(bSucceeded != null) {
+                        hmLatencies.get(op).record((System.nanoTime() - lStart) / 1000);
+                        if(!bSucceeded) hmErrors.get(op).incrementAndGet();
+                    }
+                    if(lThinkTime > 0) Thread.sleep(lThinkTime);
+                }
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            finally {
+                cdlFinished.countDown();
+            }
+        }
+
+        //connect to the server, register this session's user and fetch the menu
+        private boolean setUp() throws InterruptedException {
+            try {
+                if(iSessionsPerConnection > 1) {
+                    this.comms = LoadGenerator.this.getSharedConnection(iSession / iSessionsPerConnection);
+                    this.acClient = this.await(AsyncClient.openSession(comms));
+                    if(this.acClient == null) return false;
+                }
+                else {
+                    this.comms = new CommsClient();
+                    this.acClient = new AsyncClient(comms);
+                }
+                List<Postcode> lPostcodes = this.await(acClient.getPostcodes());
+                this.pcPostcode = lPostcodes == null || lPostcodes.isEmpty() ? null : lPostcodes.get(0);
+                this.szName = LoadGenerator.this.newUserName();
+                this.user = this.await(acClient.register(szName, PASSWORD, "Load Street", pcPostcode));
+                List<Dish> lFetched = this.await(acClient.getDishes());
+                if(lFetched != null) lDishes = lFetched;
+                return this.user != null;
+            }
+            catch (IOException io) {
+                return false;
+            }
+        }
+
+        //run a single operation, returning whether it succeeded, or null if there was nothing to do
+        private Boolean perform(Opcode op) throws Exception {
+            switch (op) {
+                case REGISTER:
+                    return this.await(acClient.register(LoadGenerator.this.newUserName(), PASSWORD, "Load Street", pcPostcode)) != null;
+                case LOGIN:
+                    return this.await(acClient.login(szName, PASSWORD)) != null;
+                case GETDISHES:
+                    List<Dish> lFetched = this.await(acClient.getDishes());
+                    if(lFetched == null) return false;
+                    lDishes = lFetched;
+                    return true;
+                case CHECKOUT:
+                    if(lDishes.isEmpty()) return null;
+                    user.addToBasket(lDishes.get(r.nextInt(lDishes.size())), 1);
+                    Order oOrder = this.await(acClient.checkoutBasket(user));
+                    if(oOrder == null) return false;
+                    dqOrders.add(oOrder);
+                    return true;
+                case GETORDERS:
+                    //the client keeps its orders up to date from pushes, so ask the server directly to measure it
+                    return this.await(comms.sendRequest(new MessageHeader(Opcode.GETORDERS, acClient.getSessionIndex(), acClient.getSessionToken(user)))) != null;
+                case QUERYORDERS:
+                    OrderQuery query = new OrderQuery(20);
+                    query.setNewestFirst(true);
+                    return this.await(acClient.queryOrders(user, query)) != null;
+                case CANCELORDER:
+                    Order oCancel = dqOrders.poll();
+                    if(oCancel == null) return null;
+                    //an order that has already left cannot be cancelled, which counts as a failed cancel
+                    return Boolean.TRUE.equals(this.await(acClient.cancelOrder(oCancel)));
+                default:
+                    return null;
+            }
+        }
+
+        //wait on a reply, failing the operation if the server takes too long
+        private <T> T await(CompletableFuture<T> cfReply) throws InterruptedException {
+            try {
+                return cfReply.get(REQUEST_TIMEOUT, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException ie) {
+                throw ie;
+            }
+            catch (Exception e) {
+                return null;
+            }
+        }
+    }
+
+    //constructor
+    public LoadGenerator(int iClients, long lDuration, Map<Opcode, Integer> hmMix, long lThinkTime) {
+        this.iClients = Math.max(1, iClients);
+        this.lDuration = lDuration;
+        this.lThinkTime = lThinkTime;
+
+        //lay the weights end to end, so a random number picks an operation in proportion to its weight
+        this.opMix = new Opcode[hmMix.size()];
+        this.iCumulativeWeights = new int[hmMix.size()];
+        int iTotal = 0;
+        int i = 0;
+        for(Map.Entry<Opcode, Integer> eWeight : hmMix.entrySet()) {
+            iTotal += eWeight.getValue();
+            opMix[i] = eWeight.getKey();
+            iCumulativeWeights[i++] = iTotal;
+        }
+        if(iTotal <= 0) {
+            throw new IllegalArgumentException("The operation mix must have a positive weight");
+        }
+
+        for(Opcode op : SUPPORTED) {
+            hmLatencies.put(op, new LatencyHistogram());
+            hmErrors.put(op, new AtomicLong());
+        }
+    }
+
+    //carry this many sessions over each connection, as logical sessions
+    public void setSessionsPerConnection(int iSessionsPerConnection) {
+        this.iSessionsPerConnection = Math.max(1, iSessionsPerConnection);
+    }
+
+    //the connection shared by a group of sessions, made by the first session of the group to ask for it
+    private synchronized CommsClient getSharedConnection(int iGroup) throws IOException {
+        CommsClient comms = hmSharedConnections.get(iGroup);
+        if(comms == null) {
+            comms = new CommsClient();
+            hmSharedConnections.put(iGroup, comms);
+        }
+        return comms;
+    }
+
+    //parse a mix such as "GETDISHES=60,CHECKOUT=40" into the weight of each operation
+    public static Map<Opcode, Integer> parseMix(String szMix) {
+        EnumMap<Opcode, Integer> hmMix = new EnumMap<>(Opcode.class);
+        for(String szEntry : szMix.split(",")) {
+            String[] szParts = szEntry.trim().split("=");
+            Opcode op = Opcode.valueOf(szParts[0].trim().toUpperCase());
+            if(!Arrays.asList(SUPPORTED).contains(op)) {
+                throw new IllegalArgumentException("Operation cannot be generated: " + op);
+            }
+            int iWeight = Integer.parseInt(szParts[1].trim());
+            if(iWeight > 0) hmMix.put(op, iWeight);
+        }
+        return hmMix;
+    }
+
+    //run every session until the duration is up, then print the report
+    public void run() throws InterruptedException {
+        long lStart = System.currentTimeMillis();
+        CountDownLatch cdlFinished = new CountDownLatch(iClients);
+        for(int i = 0; i < iClients; i++) {
+            Workers.start("load-session-" + i, new Session(i, lStart + lDuration, cdlFinished), true);
+        }
+        cdlFinished.await();
+
+        System.out.print(this.getReport(System.currentTimeMillis() - lStart));
+    }
+
+    //pick the next operation at random, in proportion to the weights of the mix
+    private Opcode pickOperation(Random r) {
+        int iPick = r.nextInt(iCumulativeWeights[iCumulativeWeights.length - 1]);
+        for(int i = 0; i < iCumulativeWeights.length; i++) {
+            if(iPick < iCumulativeWeights[i]) return opMix[i];
+        }
+        return opMix[opMix.length - 1];
+    }
+
+    //a user name that is unique to this run
+    private String newUserName() {
+        return "load-" + szRunId + "-" + lNextUser.incrementAndGet();
+    }
+
+    //the throughput and latency percentiles of every operation, in milliseconds
+    public String getReport(long lElapsed) {
+        StringBuilder sbReport = new StringBuilder();
+        double dSeconds = Math.max(1, lElapsed) / 1000.0;
+        sbReport.append(String.format("%d clients over %d connections for %.1fs, %d failed to start%n"
+                , iClients, (iClients + iSessionsPerConnection - 1) / iSessionsPerConnection, dSeconds, lSetupFailures.get()));
+        sbReport.append(String.format("%-12s %9s %7s %9s %9s %9s %9s %9s%n"
+                , "Operation", "Count", "Errors", "Ops/s", "p50 ms", "p99 ms", "p99.9 ms", "Max ms"));
+
+        long lTotal = 0;
+        for(Opcode op : SUPPORTED) {
+            LatencyHistogram lhLatency = hmLatencies.get(op);
+            if(lhLatency.getCount() == 0) continue;
+            lTotal += lhLatency.getCount();
+            sbReport.append(String.format("%-12s %9d %7d %9.1f %9.3f %9.3f %9.3f %9.3f%n"
+                    , op.name()
+                    , lhLatency.getCount()
+                    , hmErrors.get(op).get()
+                    , lhLatency.getCount() / dSeconds
+                    , lhLatency.getPercentile(50) / 1000.0
+                    , lhLatency.getPercentile(99) / 1000.0
+                    , lhLatency.getPercentile(99.9) / 1000.0
+                    , lhLatency.getMax() / 1000.0));
+        }
+        sbReport.append(String.format("%-12s %9d %7s %9.1f%n", "TOTAL", lTotal, "", lTotal / dSeconds));
+        if(CompressingCodec.getMessagesCompressed() + CompressingCodec.getMessagesSkipped() > 0) {
+            sbReport.append(CompressingCodec.getMetrics()).append(System.lineSeparator());
+        }
+        return sbReport.toString();
+    }
+}
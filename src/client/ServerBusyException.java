@@ -0,0 +1,22 @@
+package client;
+
+/**
+ * Exception for a request the server turned away because it was too busy, even after retrying
+ */
+public class ServerBusyException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private long lRetryAfter;
+
+    //constructor
+    public ServerBusyException(long lRetryAfter) {
+        super("Server busy, retry after " + lRetryAfter + "ms");
+        this.lRetryAfter = lRetryAfter;
+    }
+
+    //how long the server asked the client to wait before trying again
+    public long getRetryAfter() {
+        return this.lRetryAfter;
+    }
+}
@@ -0,0 +1,547 @@
+package common;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Codec that encodes messages in a compact binary form instead of using Java serialization
+ * A message is written as its opcode, its connection index and header fields, its correlation ID and then each payload value behind a one byte tag
+ * Integers are written as variable length numbers, and a model that appears more than once in a message (such as a supplier shared
+ * by several ingredients) is only written the first time, with later appearances written as a reference to it
+ */
+public class BinaryCodec implements MessageCodec {
+
+    //tags for each type of value that can be written
+    private static final int TAG_NULL = 0;
+    private static final int TAG_STRING = 1;
+    private static final int TAG_INT = 2;
+    private static final int TAG_LONG = 3;
+    private static final int TAG_DOUBLE = 4;
+    private static final int TAG_BOOLEAN = 5;
+    private static final int TAG_LIST = 6;
+    private static final int TAG_MAP = 7;
+    private static final int TAG_REFERENCE = 8;
+    private static final int TAG_POSTCODE = 9;
+    private static final int TAG_SUPPLIER = 10;
+    private static final int TAG_INGREDIENT = 11;
+    private static final int TAG_DISH = 12;
+    private static final int TAG_USER = 13;
+    private static final int TAG_ORDER = 14;
+    private static final int TAG_CATALOG_DELTA = 15;
+    private static final int TAG_USER_SESSION = 16;
+    private static final int TAG_ORDER_QUERY = 17;
+    private static final int TAG_ORDER_PAGE = 18;
+    private static final int TAG_MESSAGE_HEADER = 19;
+
+    //the deepest values can be nested inside each other in a message
+    private static final int MAX_DEPTH = 64;
+
+    /**
+     * Class that writes the values of a single message, remembering which models it has already written
+     */
+    private static class Writer {
+        private ByteArrayOutputStream baosBytes = new ByteArrayOutputStream(256);
+        private DataOutputStream dosOutput = new DataOutputStream(baosBytes);
+        private IdentityHashMap<Object, Integer> hmWritten = new IdentityHashMap<>();
+        private int iCopiedModels;
+
+        public byte[] toByteArray() {
+            return baosBytes.toByteArray();
+        }
+
+        public void writeByte(int iValue) throws IOException {
+            dosOutput.writeByte(iValue);
+        }
+
+        public void writeVarLong(long lValue) throws IOException {
+            while((lValue & ~0x7FL) != 0) {
+                dosOutput.writeByte((int) ((lValue & 0x7F) | 0x80));
+                lValue >>>= 7;
+            }
+            dosOutput.writeByte((int) lValue);
+        }
+
+        public void writeVarInt(int iValue) throws IOException {
+            this.writeVarLong(iValue & 0xFFFFFFFFL);
+        }
+
+        //write a string as its length plus one, so that a length of 0 can mean null
+        public void writeString(String szValue) throws IOException {
+            if(szValue == null) {
+                this.writeVarInt(0);
+                return;
+            }
+            byte[] bValue = szValue.getBytes(StandardCharsets.UTF_8);
+            this.writeVarInt(bValue.length + 1);
+            dosOutput.write(bValue);
+        }
+
+        //write a message header from its parts, the opcode as its code, the connection index as a number and the rest as strings
+        public void writeHeader(MessageHeader mhHeader) throws IOException {
+            Opcode op = mhHeader.getOpcode();
+            if(op == null) {
+                throw new IOException("Unknown opcode: " + mhHeader.getOpcodeName());
+            }
+            this.writeByte(op.getCode());
+            if(op.isIndexed()) {
+                this.writeVarInt(mhHeader.getConnectionIndex());
+            }
+            this.writeVarInt(mhHeader.getFieldCount());
+            for(int i = 0; i < mhHeader.getFieldCount(); i++) {
+                this.writeString(mhHeader.getField(i));
+            }
+        }
+
+        public void writeValue(Object oValue) throws IOException {
+            if(oValue == null) {
+                this.writeByte(TAG_NULL);
+            }
+            else if(oValue instanceof String) {
+                this.writeByte(TAG_STRING);
+                this.writeString((String) oValue);
+            }
+            else if(oValue instanceof Integer || oValue instanceof Short || oValue instanceof Byte) {
+                this.writeByte(TAG_INT);
+                int iValue = ((Number) oValue).intValue();
+                this.writeVarInt((iValue << 1) ^ (iValue >> 31));
+            }
+            else if(oValue instanceof Long) {
+                this.writeByte(TAG_LONG);
+                long lValue = (Long) oValue;
+                this.writeVarLong((lValue << 1) ^ (lValue >> 63));
+            }
+            else if(oValue instanceof Number) {
+                this.writeByte(TAG_DOUBLE);
+                dosOutput.writeDouble(((Number) oValue).doubleValue());
+            }
+            else if(oValue instanceof Boolean) {
+                this.writeByte(TAG_BOOLEAN);
+                dosOutput.writeBoolean((Boolean) oValue);
+            }
+            else if(oValue instanceof Collection) {
+                this.writeByte(TAG_LIST);
+                this.writeVarInt(((Collection<?>) oValue).size());
+                for(Object oItem : (Collection<?>) oValue) {
+                    this.writeValue(oItem);
+                }
+            }
+            else if(oValue instanceof Map) {
+                this.writeByte(TAG_MAP);
+                this.writeVarInt(((Map<?, ?>) oValue).size());
+                for(Map.Entry<?, ?> eEntry : ((Map<?, ?>) oValue).entrySet()) {
+                    this.writeValue(eEntry.getKey());
+                    this.writeValue(eEntry.getValue());
+                }
+            }
+            else if(oValue instanceof Model) {
+                this.writeModel((Model) oValue);
+            }
+            else if(oValue instanceof MessageHeader) {
+                //the header of a message carried inside another, such as a push wrapped for a logical session
+                this.writeByte(TAG_MESSAGE_HEADER);
+                this.writeHeader((MessageHeader) oValue);
+            }
+            else if(oValue instanceof CatalogDelta) {
+                CatalogDelta<?> cdDelta = (CatalogDelta<?>) oValue;
+                this.writeByte(TAG_CATALOG_DELTA);
+                this.writeVarLong(cdDelta.getVersion());
+                this.writeValue(cdDelta.getChanged());
+                this.writeValue(cdDelta.getRemoved());
+            }
+            else if(oValue instanceof UserSession) {
+                UserSession usSession = (UserSession) oValue;
+                this.writeByte(TAG_USER_SESSION);
+                this.writeString(usSession.getToken());
+                this.writeValue(usSession.getUser());
+            }
+            else if(oValue instanceof OrderQuery) {
+                OrderQuery oqQuery = (OrderQuery) oValue;
+                this.writeByte(TAG_ORDER_QUERY);
+                this.writeString(oqQuery.getCustomer());
+                this.writeString(oqQuery.getStatus());
+                this.writeVarLong(oqQuery.getPlacedFrom());
+                this.writeVarLong(oqQuery.getPlacedTo());
+                this.writeVarLong(oqQuery.getAfterId());
+                this.writeVarInt(oqQuery.getOffset());
+                this.writeVarInt(oqQuery.getLimit());
+                dosOutput.writeBoolean(oqQuery.isNewestFirst());
+                dosOutput.writeBoolean(oqQuery.isIncludeArchived());
+            }
+            else if(oValue instanceof OrderPage) {
+                OrderPage opPage = (OrderPage) oValue;
+                this.writeByte(TAG_ORDER_PAGE);
+                this.writeValue(opPage.getOrders());
+                dosOutput.writeBoolean(opPage.hasMore());
+            }
+            else if(oValue instanceof EncodedSnapshot) {
+                EncodedSnapshot esSnapshot = (EncodedSnapshot) oValue;
+                //a snapshot numbers its models from zero, so its bytes can only be copied in before any other model is written
+                if(hmWritten.isEmpty() && iCopiedModels == 0) {
+                    dosOutput.write(esSnapshot.getBinary());
+                    iCopiedModels = esSnapshot.getBinaryModels();
+                }
+                else {
+                    this.writeValue(esSnapshot.getValue());
+                }
+            }
+            else {
+                throw new IOException("Cannot encode value of type " + oValue.getClass().getName());
+            }
+        }
+
+        //write a model, or a reference to it if it has already been written in this message
+        private void writeModel(Model mValue) throws IOException {
+            Integer iReference = hmWritten.get(mValue);
+            if(iReference != null) {
+                this.writeByte(TAG_REFERENCE);
+                this.writeVarInt(iReference);
+                return;
+            }
+
+            if(mValue instanceof Postcode) {
+                Postcode pPostcode = (Postcode) mValue;
+                this.writeByte(TAG_POSTCODE);
+                this.writeString(pPostcode.getPostcode());
+                this.writeValue(pPostcode.getDistance());
+            }
+            else if(mValue instanceof Supplier) {
+                Supplier sSupplier = (Supplier) mValue;
+                this.writeByte(TAG_SUPPLIER);
+                this.writeString(sSupplier.getName());
+                this.writeValue(sSupplier.getDistance());
+            }
+            else if(mValue instanceof Ingredient) {
+                Ingredient inIngredient = (Ingredient) mValue;
+                this.writeByte(TAG_INGREDIENT);
+                this.writeString(inIngredient.getName());
+                this.writeString(inIngredient.getUnit());
+                this.writeValue(inIngredient.getSupplier());
+            }
+            else if(mValue instanceof Dish) {
+                Dish dDish = (Dish) mValue;
+                this.writeByte(TAG_DISH);
+                this.writeVarLong(dDish.getId());
+                this.writeString(dDish.getName());
+                this.writeString(dDish.getDescription());
+                dosOutput.writeDouble(dDish.getPrice());
+                this.writeValue(dDish.getRecipe());
+            }
+            else if(mValue instanceof User) {
+                User uUser = (User) mValue;
+                this.writeByte(TAG_USER);
+                this.writeString(uUser.getName());
+                this.writeString(uUser.getPassword());
+                this.writeString(uUser.getLocation());
+                this.writeValue(uUser.getPostcode());
+                this.writeValue(uUser.getBasket());
+            }
+            else if(mValue instanceof Order) {
+                Order oOrder = (Order) mValue;
+                this.writeByte(TAG_ORDER);
+                this.writeVarLong(oOrder.getId());
+                this.writeVarLong(oOrder.getPlacedAt());
+                this.writeValue(oOrder.getCustomer());
+                this.writeString(oOrder.getStatus());
+                dosOutput.writeBoolean(oOrder.getOrderCompletion());
+                this.writeValue(oOrder.getClientOrder());
+            }
+            else {
+                throw new IOException("Cannot encode model of type " + mValue.getClass().getName());
+            }
+
+            //models are numbered once they have been written, in the same order the reader creates them
+            hmWritten.put(mValue, iCopiedModels + hmWritten.size());
+        }
+    }
+
+    /**
+     * Class that reads the values of a single message, remembering the models it has already read
+     * The bytes come from another machine, so every count, length, reference and type is checked before it is trusted,
+     * and anything that does not fit the message is an IOException rather than a huge allocation or a runtime exception
+     */
+    private static class Reader {
+        private ByteArrayInputStream baisBytes;
+        private DataInputStream disInput;
+        private ArrayList<Object> alRead = new ArrayList<>();
+        private int iDepth;
+
+        public Reader(byte[] bBody) {
+            this.baisBytes = new ByteArrayInputStream(bBody);
+            this.disInput = new DataInputStream(baisBytes);
+        }
+
+        public int readByte() throws IOException {
+            return disInput.readUnsignedByte();
+        }
+
+        public long readVarLong() throws IOException {
+            long lValue = 0;
+            for(int iShift = 0; iShift < 64; iShift += 7) {
+                int iByte = disInput.readUnsignedByte();
+                lValue |= (long) (iByte & 0x7F) << iShift;
+                if((iByte & 0x80) == 0) {
+                    return lValue;
+                }
+            }
+            throw new IOException("Malformed variable length number");
+        }
+
+        public int readVarInt() throws IOException {
+            return (int) this.readVarLong();
+        }
+
+        //read a count of items, each taking at least the given number of bytes, which must fit in what is left of the message
+        public int readCount(int iItemBytes) throws IOException {
+            long lCount = this.readVarLong();
+            if(lCount < 0 || lCount > baisBytes.available() / iItemBytes) {
+                throw new IOException("Count of " + lCount + " does not fit in the message");
+            }
+            return (int) lCount;
+        }
+
+        //a string's length is written plus one, so the bytes left must cover one less than the count read
+        public String readString() throws IOException {
+            long lLength = this.readVarLong();
+            if(lLength == 0) {
+                return null;
+            }
+            if(lLength < 0 || lLength - 1 > baisBytes.available()) {
+                throw new IOException("String of " + (lLength - 1) + " bytes does not fit in the message");
+            }
+            int iLength = (int) lLength;
+            byte[] bValue = new byte[iLength - 1];
+            disInput.readFully(bValue);
+            return new String(bValue, StandardCharsets.UTF_8);
+        }
+
+        //read a message header straight into its parts, rather than into a string that would only be split up again
+        public MessageHeader readHeader() throws IOException {
+            Opcode op;
+            try {
+                op = Opcode.fromCode(this.readByte());
+            }
+            catch (IllegalArgumentException iae) {
+                throw new IOException(iae.getMessage());
+            }
+            int iConnection = op.isIndexed() ? this.readVarInt() : -1;
+            String[] szFields = new String[this.readCount(1)];
+            for(int i = 0; i < szFields.length; i++) {
+                szFields[i] = this.readString();
+            }
+            return new MessageHeader(op, iConnection, szFields);
+        }
+
+        public Object readValue() throws IOException {
+            //a message nested too deeply would run the reader out of stack
+            if(++iDepth > MAX_DEPTH) {
+                throw new IOException("Message is nested too deeply");
+            }
+            try {
+                return this.readTagged(this.readByte());
+            }
+            finally {
+                iDepth--;
+            }
+        }
+
+        //read a value that must be of the given type or null
+        public <T> T readValue(Class<T> cType) throws IOException {
+            return checkType(this.readValue(), cType);
+        }
+
+        private Object readTagged(int iTag) throws IOException {
+            switch(iTag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_STRING:
+                    return this.readString();
+                case TAG_INT:
+                    int iValue = this.readVarInt();
+                    return (iValue >>> 1) ^ -(iValue & 1);
+                case TAG_LONG:
+                    long lValue = this.readVarLong();
+                    return (lValue >>> 1) ^ -(lValue & 1);
+                case TAG_DOUBLE:
+                    return disInput.readDouble();
+                case TAG_BOOLEAN:
+                    return disInput.readBoolean();
+                case TAG_LIST:
+                    int iSize = this.readCount(1);
+                    ArrayList<Object> alList = new ArrayList<>(iSize);
+                    for(int i = 0; i < iSize; i++) {
+                        alList.add(this.readValue());
+                    }
+                    return alList;
+                case TAG_MAP:
+                    return this.readMap();
+                case TAG_REFERENCE:
+                    int iReference = this.readVarInt();
+                    if(iReference < 0 || iReference >= alRead.size()) {
+                        throw new IOException("Reference to model " + iReference + " that has not been read");
+                    }
+                    return alRead.get(iReference);
+                case TAG_CATALOG_DELTA:
+                    long lVersion = this.readVarLong();
+                    return new CatalogDelta<>(lVersion, this.readList(Model.class), this.readList(String.class));
+                case TAG_USER_SESSION:
+                    return new UserSession(this.readString(), this.readValue(User.class));
+                case TAG_ORDER_QUERY:
+                    String szCustomer = this.readString();
+                    String szStatus = this.readString();
+                    long lPlacedFrom = this.readVarLong();
+                    long lPlacedTo = this.readVarLong();
+                    long lAfterId = this.readVarLong();
+                    int iOffset = this.readVarInt();
+                    OrderQuery oqQuery = new OrderQuery(this.readVarInt());
+                    oqQuery.setCustomer(szCustomer);
+                    oqQuery.setStatus(szStatus);
+                    oqQuery.setPlacedBetween(lPlacedFrom, lPlacedTo);
+                    oqQuery.setAfterId(lAfterId);
+                    oqQuery.setOffset(iOffset);
+                    oqQuery.setNewestFirst(disInput.readBoolean());
+                    oqQuery.setIncludeArchived(disInput.readBoolean());
+                    return oqQuery;
+                case TAG_MESSAGE_HEADER:
+                    return this.readHeader();
+                case TAG_ORDER_PAGE:
+                    List<Order> lOrders = this.readList(Order.class);
+                    return new OrderPage(lOrders == null ? new ArrayList<>() : lOrders, disInput.readBoolean());
+                default:
+                    Object oModel = this.readModel(iTag);
+                    alRead.add(oModel);
+                    return oModel;
+            }
+        }
+
+        private HashMap<Object, Object> readMap() throws IOException {
+            int iSize = this.readCount(2);
+            HashMap<Object, Object> hmMap = new HashMap<>();
+            for(int i = 0; i < iSize; i++) {
+                hmMap.put(this.readValue(), this.readValue());
+            }
+            return hmMap;
+        }
+
+        //read a list value whose items must all be of the given type, or null
+        private <T> List<T> readList(Class<T> cItem) throws IOException {
+            List<?> lValue = this.readValue(List.class);
+            if(lValue == null) {
+                return null;
+            }
+            ArrayList<T> alItems = new ArrayList<>(lValue.size());
+            for(Object oItem : lValue) {
+                alItems.add(checkType(oItem, cItem));
+            }
+            return alItems;
+        }
+
+        //read a map value whose keys and values must be of the given types, or null
+        private <K, V> HashMap<K, V> readMap(Class<K> cKey, Class<V> cValue) throws IOException {
+            Map<?, ?> hmValue = this.readValue(Map.class);
+            if(hmValue == null) {
+                return null;
+            }
+            HashMap<K, V> hmEntries = new HashMap<>();
+            for(Map.Entry<?, ?> eEntry : hmValue.entrySet()) {
+                hmEntries.put(checkType(eEntry.getKey(), cKey), checkType(eEntry.getValue(), cValue));
+            }
+            return hmEntries;
+        }
+
+        private Object readModel(int iTag) throws IOException {
+            switch(iTag) {
+                case TAG_POSTCODE:
+                    return new Postcode(this.readString(), this.readValue(Number.class));
+                case TAG_SUPPLIER:
+                    return new Supplier(this.readString(), this.readValue(Number.class));
+                case TAG_INGREDIENT:
+                    return new Ingredient(this.readString(), this.readString(), this.readValue(Supplier.class));
+                case TAG_DISH:
+                    long lId = this.readVarLong();
+                    String szName = this.readString();
+                    String szDescription = this.readString();
+                    double dPrice = disInput.readDouble();
+                    HashMap<Ingredient, Number> hmRecipe = this.readMap(Ingredient.class, Number.class);
+                    Dish dDish = new Dish(szName, szDescription, dPrice, hmRecipe == null ? new HashMap<>() : hmRecipe);
+                    dDish.setId(lId);
+                    return dDish;
+                case TAG_USER:
+                    User uUser = new User(this.readString(), this.readString(), this.readString(), this.readValue(Postcode.class));
+                    HashMap<Dish, Number> hmBasket = this.readMap(Dish.class, Number.class);
+                    if(hmBasket != null) {
+                        uUser.getBasket().putAll(hmBasket);
+                    }
+                    return uUser;
+                case TAG_ORDER:
+                    long lOrderId = this.readVarLong();
+                    long lPlacedAt = this.readVarLong();
+                    Order oOrder = new Order(this.readValue(User.class));
+                    oOrder.setId(lOrderId);
+                    oOrder.setPlacedAt(lPlacedAt);
+                    oOrder.setStatus(this.readString());
+                    oOrder.setOrderCompletion(disInput.readBoolean());
+                    HashMap<Dish, Number> hmOrder = this.readMap(Dish.class, Number.class);
+                    if(hmOrder != null) {
+                        oOrder.setOrder(hmOrder);
+                    }
+                    return oOrder;
+                default:
+                    throw new IOException("Unknown value tag: " + iTag);
+            }
+        }
+
+        //a value read from the message, which must be of the given type or null
+        private static <T> T checkType(Object oValue, Class<T> cType) throws IOException {
+            if(oValue != null && !cType.isInstance(oValue)) {
+                throw new IOException("Expected " + cType.getSimpleName() + " but found " + oValue.getClass().getName());
+            }
+            return cType.cast(oValue);
+        }
+    }
+
+    //encode the value of a snapshot on its own, so its bytes can be copied into any message it is sent in
+    static void encodeSnapshot(EncodedSnapshot esSnapshot) throws IOException {
+        Writer wWriter = new Writer();
+        wWriter.writeValue(esSnapshot.getValue());
+        esSnapshot.setBinary(wWriter.toByteArray(), wWriter.hmWritten.size());
+    }
+
+    @Override
+    public byte[] encode(Object oMessage) throws IOException {
+        MessageHeader mhHeader = oMessage instanceof Object[] && ((Object[]) oMessage).length > 0
+                ? MessageHeader.of(((Object[]) oMessage)[0]) : null;
+        if(mhHeader == null) {
+            throw new IOException("Only messages with a header can be encoded");
+        }
+        Object[] oParts = (Object[]) oMessage;
+
+        Writer wWriter = new Writer();
+        wWriter.writeHeader(mhHeader);
+
+        wWriter.writeVarLong(oParts.length > 1 && oParts[1] != null ? ((Number) oParts[1]).longValue() : 0);
+        wWriter.writeVarInt(Math.max(0, oParts.length - 2));
+        for(int i = 2; i < oParts.length; i++) {
+            wWriter.writeValue(oParts[i]);
+        }
+
+        return wWriter.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] bBody) throws IOException {
+        Reader rReader = new Reader(bBody);
+        MessageHeader mhHeader = rReader.readHeader();
+
+        long lCorrelationId = rReader.readVarLong();
+        int iPayload = rReader.readCount(1);
+        Object[] oMessage = new Object[iPayload + 2];
+        oMessage[0] = mhHeader;
+        oMessage[1] = lCorrelationId;
+        for(int i = 0; i < iPayload; i++) {
+            oMessage[i + 2] = rReader.readValue();
+        }
+
+        return oMessage;
+    }
+}
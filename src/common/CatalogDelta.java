@@ -0,0 +1,42 @@
+package common;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Catalog delta class that holds the changes made to a catalog (dishes or postcodes) since a version the client has already seen
+ * Entries that were added or changed are sent in full, entries that were removed are sent by name only
+ */
+public class CatalogDelta<T extends Model> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private long lVersion;
+    private List<T> lChanged;
+    private List<String> lRemoved;
+
+    //constructor
+    public CatalogDelta(long lVersion, List<T> lChanged, List<String> lRemoved) {
+        this.lVersion = lVersion;
+        this.lChanged = lChanged;
+        this.lRemoved = lRemoved;
+    }
+
+    //getters
+    public long getVersion() {
+        return this.lVersion;
+    }
+
+    public List<T> getChanged() {
+        return this.lChanged;
+    }
+
+    public List<String> getRemoved() {
+        return this.lRemoved;
+    }
+
+    //whether anything has changed since the version the client asked from
+    public boolean isEmpty() {
+        return this.lChanged.isEmpty() && this.lRemoved.isEmpty();
+    }
+}
@@ -0,0 +1,204 @@
+package common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codec that compresses the messages of another codec when they are large, such as long lists of orders or dishes
+ * Only messages at or above the size threshold are compressed, and only sent compressed if it makes them smaller
+ * The first byte of every body says whether the rest is compressed, so small messages cost a single extra byte
+ * Bodies are compressed as raw deflate blocks, so a message ending in a snapshot, such as the menu, only compresses the part before it
+ * and appends the snapshot's own blocks, which are compressed once and kept with it
+ * How much has been saved, and the time spent doing it, is counted for the whole program
+ */
+public class CompressingCodec implements MessageCodec {
+
+    private static final byte RAW = 0;
+    private static final byte DEFLATED = 1;
+
+    //deflaters are not thread safe, and messages can be encoded on many threads at once
+    private static final ThreadLocal<Deflater> tlDeflater = ThreadLocal.withInitial(() -> new Deflater(Deflater.BEST_SPEED, true));
+    private static final ThreadLocal<Inflater> tlInflater = ThreadLocal.withInitial(() -> new Inflater(true));
+
+    //metrics
+    private static final AtomicLong lMessagesCompressed = new AtomicLong();
+    private static final AtomicLong lMessagesSkipped = new AtomicLong();
+    private static final AtomicLong lBytesBefore = new AtomicLong();
+    private static final AtomicLong lBytesAfter = new AtomicLong();
+    private static final AtomicLong lCompressNanos = new AtomicLong();
+    private static final AtomicLong lDecompressNanos = new AtomicLong();
+
+    private MessageCodec mcInner;
+    private int iThreshold;
+
+    //constructor
+    public CompressingCodec(MessageCodec mcInner, int iThreshold) {
+        this.mcInner = mcInner;
+        this.iThreshold = iThreshold;
+    }
+
+    @Override
+    public byte[] encode(Object oMessage) throws IOException {
+        byte[] bPlain = mcInner.encode(oMessage);
+
+        if(bPlain.length >= iThreshold) {
+            long lStart = System.nanoTime();
+            byte[] bDeflated = deflate(bPlain, snapshotOf(oMessage));
+            lCompressNanos.addAndGet(System.nanoTime() - lStart);
+
+            if(bDeflated != null) {
+                lMessagesCompressed.incrementAndGet();
+                lBytesBefore.addAndGet(bPlain.length);
+                lBytesAfter.addAndGet(bDeflated.length);
+                return bDeflated;
+            }
+            lMessagesSkipped.incrementAndGet();
+        }
+
+        byte[] bBody = new byte[bPlain.length + 1];
+        bBody[0] = RAW;
+        System.arraycopy(bPlain, 0, bBody, 1, bPlain.length);
+        return bBody;
+    }
+
+    @Override
+    public Object decode(byte[] bBody) throws IOException {
+        if(bBody.length == 0) {
+            throw new IOException("Empty message");
+        }
+        if(bBody[0] == RAW) {
+            byte[] bPlain = new byte[bBody.length - 1];
+            System.arraycopy(bBody, 1, bPlain, 0, bPlain.length);
+            return mcInner.decode(bPlain);
+        }
+        if(bBody[0] != DEFLATED) {
+            throw new IOException("Unknown compression: " + bBody[0]);
+        }
+
+        long lStart = System.nanoTime();
+        byte[] bPlain = inflate(bBody);
+        lDecompressNanos.addAndGet(System.nanoTime() - lStart);
+        return mcInner.decode(bPlain);
+    }
+
+    //the snapshot a message ends with, whose compressed form can be reused, or null if it does not end with one
+    private static EncodedSnapshot snapshotOf(Object oMessage) {
+        if(oMessage instanceof Object[]) {
+            Object[] oParts = (Object[]) oMessage;
+            if(oParts.length > 0 && oParts[oParts.length - 1] instanceof EncodedSnapshot) {
+                return (EncodedSnapshot) oParts[oParts.length - 1];
+            }
+        }
+        return null;
+    }
+
+    //compress a body behind its marker and original length, or return null if it would not be any smaller
+    //if the body ends with the encoded form of a snapshot, only the part before it is compressed here
+    private static byte[] deflate(byte[] bPlain, EncodedSnapshot esSnapshot) {
+        byte[] bTail = esSnapshot == null ? null : esSnapshot.getEncodedTail(bPlain);
+        int iHead = bPlain.length - (bTail == null ? 0 : bTail.length);
+        byte[] bHead = deflate(bPlain, 0, iHead, bTail == null);
+        byte[] bTailDeflated = bTail == null ? new byte[0] : esSnapshot.getDeflated(bTail);
+
+        int iLength = 5 + bHead.length + bTailDeflated.length;
+        if(iLength >= bPlain.length) return null;
+        return ByteBuffer.allocate(iLength).put(DEFLATED).putInt(bPlain.length).put(bHead).put(bTailDeflated).array();
+    }
+
+    //compress the encoded form of a snapshot on its own, as the blocks that end a compressed body
+    static byte[] deflateTail(byte[] bEncoded) {
+        return deflate(bEncoded, 0, bEncoded.length, true);
+    }
+
+    //compress part of a body into raw deflate blocks, ending the stream if it is the last part
+    //otherwise the blocks are fully flushed, so they end on a byte boundary and the blocks after them need nothing from them
+    private static byte[] deflate(byte[] bInput, int iOffset, int iLength, boolean bLast) {
+        Deflater dDeflater = tlDeflater.get();
+        dDeflater.reset();
+        dDeflater.setInput(bInput, iOffset, iLength);
+        if(bLast) dDeflater.finish();
+
+        ByteArrayOutputStream baosOutput = new ByteArrayOutputStream(iLength / 2 + 64);
+        byte[] bBuffer = new byte[8192];
+        while(true) {
+            int iWritten = dDeflater.deflate(bBuffer, 0, bBuffer.length, bLast ? Deflater.NO_FLUSH : Deflater.FULL_FLUSH);
+            baosOutput.write(bBuffer, 0, iWritten);
+            //a flush is complete once it leaves space in the buffer
+            if(bLast ? dDeflater.finished() : iWritten < bBuffer.length) break;
+        }
+        return baosOutput.toByteArray();
+    }
+
+    //decompress a body written by deflate
+    private static byte[] inflate(byte[] bBody) throws IOException {
+        if(bBody.length < 5) {
+            throw new IOException("Compressed message too short");
+        }
+        int iLength = ByteBuffer.wrap(bBody, 1, 4).getInt();
+        Frames.checkLength(iLength);
+
+        Inflater iInflater = tlInflater.get();
+        iInflater.reset();
+        iInflater.setInput(bBody, 5, bBody.length - 5);
+        byte[] bPlain = new byte[iLength];
+        try {
+            int iOffset = 0;
+            while(iOffset < iLength) {
+                int iRead = iInflater.inflate(bPlain, iOffset, iLength - iOffset);
+                if(iRead == 0 && (iInflater.finished() || iInflater.needsInput())) {
+                    throw new IOException("Compressed message is shorter than its length");
+                }
+                iOffset += iRead;
+            }
+        }
+        catch (DataFormatException dfe) {
+            throw new IOException("Invalid compressed message", dfe);
+        }
+        return bPlain;
+    }
+
+    //METRICS
+    public static long getMessagesCompressed() {
+        return lMessagesCompressed.get();
+    }
+
+    //messages that were large enough to try, but did not get any smaller
+    public static long getMessagesSkipped() {
+        return lMessagesSkipped.get();
+    }
+
+    public static long getBytesBeforeCompression() {
+        return lBytesBefore.get();
+    }
+
+    public static long getBytesAfterCompression() {
+        return lBytesAfter.get();
+    }
+
+    //the size of the compressed messages as a fraction of their original size, lower is better
+    public static double getCompressionRatio() {
+        long lBefore = getBytesBeforeCompression();
+        return lBefore == 0 ? 1 : (double) getBytesAfterCompression() / lBefore;
+    }
+
+    public static long getCompressNanos() {
+        return lCompressNanos.get();
+    }
+
+    public static long getDecompressNanos() {
+        return lDecompressNanos.get();
+    }
+
+    //a single line summary of the metrics
+    public static String getMetrics() {
+        return String.format("compressed %d messages (%d not worth it), %d -> %d bytes, ratio %.3f, %.1fms compressing, %.1fms decompressing"
+                , getMessagesCompressed(), getMessagesSkipped()
+                , getBytesBeforeCompression(), getBytesAfterCompression(), getCompressionRatio()
+                , getCompressNanos() / 1e6, getDecompressNanos() / 1e6);
+    }
+}
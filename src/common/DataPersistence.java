@@ -83,16 +83,12 @@ public class DataPersistence {
                         + s.getStock().getStockLevel(dDish));
             }
 
+            //archived orders are saved along with the live ones, so the history is kept
             for(Order oOrder : s.getOrders()) {
-                pw.print("ORDER:" + oOrder.getCustomer().getName() + ":");
-                Iterator<Dish> itDishIterator = oOrder.getClientOrder().keySet().iterator();
-                Dish dDish;
-                while(itDishIterator.hasNext()) {
-                    dDish = itDishIterator.next();
-                    pw.print(oOrder.getClientOrder().get(dDish) + " * " + dDish.getName());
-                    if(itDishIterator.hasNext()) pw.print(",");
-                }
-                pw.println();
+                this.printOrder(pw, oOrder, false);
+            }
+            for(Order oOrder : s.getArchivedOrders()) {
+                this.printOrder(pw, oOrder, true);
             }
         }
         catch (IOException io) {
@@ -100,4 +96,20 @@ public class DataPersistence {
         }
 
     }
+
+    //print an order with its ID, time placed, status and whether it is archived, so it is reloaded as it was
+    private void printOrder(PrintWriter pw, Order oOrder, boolean bArchived) {
+        pw.print("ORDER:" + oOrder.getCustomer().getName() + ":");
+        Iterator<Dish> itDishIterator = oOrder.getClientOrder().keySet().iterator();
+        Dish dDish;
+        while(itDishIterator.hasNext()) {
+            dDish = itDishIterator.next();
+            pw.print(oOrder.getClientOrder().get(dDish) + " * " + dDish.getName());
+            if(itDishIterator.hasNext()) pw.print(",");
+        }
+        pw.println(":" + oOrder.getId()
+                + ":" + oOrder.getPlacedAt()
+                + ":" + oOrder.getStatus()
+                + ":" + (bArchived ? "ARCHIVED" : "LIVE"));
+    }
 }
@@ -7,10 +7,12 @@ import java.util.Map;
 /**
  * Dish class that handles the dishes for both client and server
  * Stores the name, description, price and the recipe for the dish
+ * A dish is given an ID when it is added to the menu, which stays the same when it is renamed
  * Made by Alex Lockwood
  */
 public class Dish extends Model implements Serializable {
 
+    private long lId;
     private String szName;
     private String szDescription;
     private double dPrice;
@@ -31,6 +33,10 @@ public class Dish extends Model implements Serializable {
     }
 
     //getters
+    public long getId() {
+        return this.lId;
+    }
+
     @Override
     public String getName() {
         return this.szName;
@@ -49,24 +55,33 @@ public class Dish extends Model implements Serializable {
     }
 
     //setters
+    void setId(long lId) {
+        this.lId = lId;
+    }
+
+    //each value is changed before listeners are told, so that a listener versioning the menu sees the dish as it now is
     public void setName(String szName) {
-        this.notifyUpdate("name", this.getName(), szName);
+        String szOldName = this.szName;
         this.szName = szName;
+        this.notifyUpdate("name", szOldName, szName);
     }
 
     public void setDescription(String szDescription) {
-        this.notifyUpdate("desc", this.getDescription(), szDescription);
+        String szOldDescription = this.szDescription;
         this.szDescription = szDescription;
+        this.notifyUpdate("desc", szOldDescription, szDescription);
     }
 
     public void setPrice(double dPrice) {
-        this.notifyUpdate("price", this.getPrice(), dPrice);
+        double dOldPrice = this.dPrice;
         this.dPrice = dPrice;
+        this.notifyUpdate("price", dOldPrice, dPrice);
     }
 
     public void setRecipe(HashMap<Ingredient, Number> hRecipe) {
-        this.notifyUpdate("recipe", this.getRecipe(), hRecipe);
+        Map<Ingredient, Number> hmOldRecipe = this.hRecipe;
         this.hRecipe = hRecipe;
+        this.notifyUpdate("recipe", hmOldRecipe, hRecipe);
     }
 
     //add ingredient to the recipe
@@ -78,6 +93,8 @@ public class Dish extends Model implements Serializable {
 
     //remove ingredient from the recipe
     public void removeIngredient(Ingredient iFood) {
+        HashMap<Ingredient, Number> hTempRecipe = new HashMap<>(this.getRecipe());
         this.getRecipe().remove(iFood);
+        this.notifyUpdate("recipe", hTempRecipe, this.getRecipe());
     }
 }
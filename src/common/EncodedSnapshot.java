@@ -0,0 +1,123 @@
+package common;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * Encoded snapshot class that holds a value sent to many clients, such as the menu, along with its encoded bytes
+ * The value is encoded once for each codec the first time it is sent, and after that its bytes are copied into every message as they are
+ * Each encoded form is also compressed once, the first time a message ending in it is compressed
+ * A snapshot is made for one version of its value, and a new one must be made when the value changes
+ */
+public class EncodedSnapshot implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private transient Object oValue;
+    private transient long lVersion;
+    private transient byte[] bBinary;
+    private transient int iBinaryModels;
+    private transient byte[] bSerial;
+    private transient byte[] bBinaryDeflated;
+    private transient byte[] bSerialDeflated;
+
+    /**
+     * Class that a snapshot is replaced by when it is serialized, carrying only the serialized bytes of its value
+     * When it is read back it is resolved into the value itself, so the other side never sees the snapshot
+     */
+    private static class SerializedValue implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private byte[] bSerial;
+
+        public SerializedValue(byte[] bSerial) {
+            this.bSerial = bSerial;
+        }
+
+        private Object readResolve() throws ObjectStreamException {
+            try (ObjectInputStream oisInput = new ObjectInputStream(new ByteArrayInputStream(bSerial))) {
+                return oisInput.readObject();
+            }
+            catch (IOException | ClassNotFoundException e) {
+                throw new InvalidObjectException("Unable to read snapshot: " + e.getMessage());
+            }
+        }
+    }
+
+    //constructor
+    public EncodedSnapshot(Object oValue, long lVersion) {
+        this.oValue = oValue;
+        this.lVersion = lVersion;
+    }
+
+    public Object getValue() {
+        return this.oValue;
+    }
+
+    //the version of the value this snapshot was made for
+    public long getVersion() {
+        return this.lVersion;
+    }
+
+    //the value in the binary codec's form, encoded the first time it is asked for
+    synchronized byte[] getBinary() throws IOException {
+        if(bBinary == null) {
+            BinaryCodec.encodeSnapshot(this);
+        }
+        return this.bBinary;
+    }
+
+    //the number of models numbered by the binary form, so the rest of a message can carry on numbering after them
+    synchronized int getBinaryModels() {
+        return this.iBinaryModels;
+    }
+
+    synchronized void setBinary(byte[] bBinary, int iBinaryModels) {
+        this.bBinary = bBinary;
+        this.iBinaryModels = iBinaryModels;
+    }
+
+    //the value in serialized form, serialized the first time it is asked for
+    synchronized byte[] getSerial() throws IOException {
+        if(bSerial == null) {
+            ByteArrayOutputStream baosOutput = new ByteArrayOutputStream(1024);
+            try (ObjectOutputStream oosOutput = new ObjectOutputStream(baosOutput)) {
+                oosOutput.writeObject(oValue);
+            }
+            this.bSerial = baosOutput.toByteArray();
+        }
+        return this.bSerial;
+    }
+
+    //the encoded form of the value that a message ends with, or null if it does not end with either form
+    synchronized byte[] getEncodedTail(byte[] bMessage) {
+        if(endsWith(bMessage, bBinary)) return this.bBinary;
+        if(endsWith(bMessage, bSerial)) return this.bSerial;
+        return null;
+    }
+
+    //one of the encoded forms compressed on its own, compressed the first time it is asked for
+    synchronized byte[] getDeflated(byte[] bEncoded) {
+        if(bEncoded == bBinary) {
+            if(bBinaryDeflated == null) bBinaryDeflated = CompressingCodec.deflateTail(bEncoded);
+            return this.bBinaryDeflated;
+        }
+        if(bSerialDeflated == null) bSerialDeflated = CompressingCodec.deflateTail(bEncoded);
+        return this.bSerialDeflated;
+    }
+
+    private static boolean endsWith(byte[] bMessage, byte[] bTail) {
+        return bTail != null && bTail.length <= bMessage.length
+                && Arrays.equals(bMessage, bMessage.length - bTail.length, bMessage.length, bTail, 0, bTail.length);
+    }
+
+    //serialize the snapshot as its already serialized bytes, rather than serializing the value again
+    private Object writeReplace() throws ObjectStreamException {
+        try {
+            return new SerializedValue(this.getSerial());
+        }
+        catch (IOException io) {
+            throw new InvalidObjectException("Unable to serialize snapshot: " + io.getMessage());
+        }
+    }
+}
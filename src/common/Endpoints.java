@@ -0,0 +1,59 @@
+package common;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Endpoints class that reads a list of addresses from a setting, such as "localhost:60010,10.0.0.2:60010"
+ * Each entry is a host and port, or just a port for every local address, or just a host for the default port
+ */
+public class Endpoints {
+
+    public static final int DEFAULT_PORT = 60010;
+
+    private Endpoints() {
+    }
+
+    //parse a comma separated list of endpoints, giving the default port to any without one
+    public static List<InetSocketAddress> parse(String szEndpoints, int iDefaultPort) {
+        List<InetSocketAddress> lEndpoints = new ArrayList<>();
+        for(String szEndpoint : szEndpoints.split(",")) {
+            szEndpoint = szEndpoint.trim();
+            if(szEndpoint.equals("")) continue;
+
+            String szHost = szEndpoint;
+            int iPort = iDefaultPort;
+            int iColon = szEndpoint.lastIndexOf(':');
+            if(iColon >= 0) {
+                szHost = szEndpoint.substring(0, iColon);
+                iPort = Integer.parseInt(szEndpoint.substring(iColon + 1));
+            }
+            else if(szEndpoint.chars().allMatch(Character::isDigit)) {
+                szHost = "";
+                iPort = Integer.parseInt(szEndpoint);
+            }
+
+            //an endpoint without a host is every local address
+            lEndpoints.add(szHost.equals("") || szHost.equals("*")
+                    ? new InetSocketAddress(iPort)
+                    : new InetSocketAddress(szHost, iPort));
+        }
+        if(lEndpoints.isEmpty()) {
+            throw new IllegalArgumentException("No endpoints given: " + szEndpoints);
+        }
+        return lEndpoints;
+    }
+
+    //the endpoints the server listens on
+    public static List<InetSocketAddress> getServerEndpoints() {
+        int iPort = Settings.getInt(Settings.COMMS_PORT, DEFAULT_PORT);
+        return parse(Settings.getString(Settings.SERVER_ENDPOINTS, Integer.toString(iPort)), iPort);
+    }
+
+    //the endpoints a client tries to connect to, in order
+    public static List<InetSocketAddress> getClientEndpoints() {
+        int iPort = Settings.getInt(Settings.COMMS_PORT, DEFAULT_PORT);
+        return parse(Settings.getString(Settings.COMMS_HOST, "localhost"), iPort);
+    }
+}
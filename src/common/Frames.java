@@ -0,0 +1,40 @@
+package common;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Frames class that handles the framing of messages sent between the clients and the server
+ * Every message is sent as a 4 byte length followed by the encoded message, so that it can be read without blocking on the stream
+ */
+public class Frames {
+
+    public static final int HEADER_SIZE = 4;
+    public static final int MAX_FRAME_SIZE = 16 * 1024 * 1024;
+
+    private Frames() {
+    }
+
+    //write a single frame to a stream, the caller is responsible for flushing
+    public static void writeFrame(DataOutputStream dosOutput, byte[] bBody) throws IOException {
+        dosOutput.writeInt(bBody.length);
+        dosOutput.write(bBody);
+    }
+
+    //read a single frame from a stream, blocking until the whole frame has arrived
+    public static byte[] readFrame(DataInputStream disInput) throws IOException {
+        int iLength = disInput.readInt();
+        checkLength(iLength);
+        byte[] bBody = new byte[iLength];
+        disInput.readFully(bBody);
+        return bBody;
+    }
+
+    //check that a frame length read from the wire is sensible
+    public static void checkLength(int iLength) throws IOException {
+        if(iLength < 0 || iLength > MAX_FRAME_SIZE) {
+            throw new IOException("Invalid frame length: " + iLength);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Handshake class that agrees the features of a connection when a client connects to the server
+ * The client sends a hello frame offering its features, and the server answers with a welcome frame holding the
+ * features both sides support and the client's connection index. Both frames are written raw, before any codec is chosen
+ */
+public class Handshake {
+
+    public static final int MAGIC = 0x53555348;
+
+    //features that can be offered in the handshake
+    public static final int FLAG_BINARY = 1;
+    public static final int FLAG_COMPRESSION = 2;
+
+    private Handshake() {
+    }
+
+    //the features this side of the connection supports, based on its settings
+    public static int getLocalFlags() {
+        int iFlags = 0;
+        if(Settings.getBoolean(Settings.COMMS_BINARY, true)) {
+            iFlags |= FLAG_BINARY;
+        }
+        if(Settings.getBoolean(Settings.COMMS_COMPRESSION, true)) {
+            iFlags |= FLAG_COMPRESSION;
+        }
+        return iFlags;
+    }
+
+    //the codec to use for a connection once its features have been agreed
+    public static MessageCodec getCodec(int iFlags) {
+        MessageCodec mcCodec = (iFlags & FLAG_BINARY) != 0 ? new BinaryCodec() : new SerialCodec();
+        if((iFlags & FLAG_COMPRESSION) != 0) {
+            mcCodec = new CompressingCodec(mcCodec, Settings.getInt(Settings.COMMS_COMPRESSION_THRESHOLD, 1024));
+        }
+        return mcCodec;
+    }
+
+    //create the hello frame sent by a client
+    public static byte[] createHello(int iFlags) {
+        return ByteBuffer.allocate(8).putInt(MAGIC).putInt(iFlags).array();
+    }
+
+    //read the features offered in a client's hello frame
+    public static int readHello(byte[] bFrame) throws IOException {
+        DataInputStream disInput = new DataInputStream(new ByteArrayInputStream(bFrame));
+        if(bFrame.length != 8 || disInput.readInt() != MAGIC) {
+            throw new IOException("Invalid handshake from client");
+        }
+        return disInput.readInt();
+    }
+
+    //create the welcome frame sent by the server in answer to a hello
+    public static byte[] createWelcome(int iFlags, int iConnectionIndex) {
+        return ByteBuffer.allocate(12).putInt(MAGIC).putInt(iFlags).putInt(iConnectionIndex).array();
+    }
+
+    //read the server's welcome frame, returning the agreed features and the connection index
+    public static int[] readWelcome(byte[] bFrame) throws IOException {
+        DataInputStream disInput = new DataInputStream(new ByteArrayInputStream(bFrame));
+        if(bFrame.length != 12 || disInput.readInt() != MAGIC) {
+            throw new IOException("Invalid handshake from server");
+        }
+        return new int[]{disInput.readInt(), disInput.readInt()};
+    }
+}
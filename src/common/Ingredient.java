@@ -37,18 +37,21 @@ public class Ingredient extends Model implements Serializable {
     //setters
     @Override
     public void setName(String szName) {
-        this.notifyUpdate("name", this.getName(), szName);
+        String szOldName = this.getName();
         this.szName = szName;
+        this.notifyUpdate("name", szOldName, szName);
     }
 
     public void setUnit(String szUnit) {
-        this.notifyUpdate("unit", this.getUnit(), szUnit);
+        String szOldUnit = this.getUnit();
         this.szUnit = szUnit;
+        this.notifyUpdate("unit", szOldUnit, szUnit);
     }
 
     public void setSupplier(Supplier sSupplier) {
-        this.notifyUpdate("supplier", this.getSupplier(), sSupplier);
+        Supplier sOldSupplier = this.getSupplier();
         this.sSupplier = sSupplier;
+        this.notifyUpdate("supplier", sOldSupplier, sSupplier);
     }
 
 }
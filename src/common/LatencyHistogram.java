@@ -0,0 +1,75 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram class that counts recorded values into log-linear buckets, so percentiles can be read without keeping every value
+ * Each power of two is split into 16 buckets, so a percentile is never more than about 6% above the true value
+ * Values can be recorded from many threads at once
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private AtomicLongArray alCounts = new AtomicLongArray(BUCKETS);
+    private AtomicLong lCount = new AtomicLong();
+    private AtomicLong lTotal = new AtomicLong();
+    private AtomicLong lMax = new AtomicLong();
+
+    //record a single value, negative values are counted as 0
+    public void record(long lValue) {
+        lValue = Math.max(0, lValue);
+        alCounts.incrementAndGet(getBucket(lValue));
+        lCount.incrementAndGet();
+        lTotal.addAndGet(lValue);
+        lMax.accumulateAndGet(lValue, Math::max);
+    }
+
+    //getters
+    public long getCount() {
+        return this.lCount.get();
+    }
+
+    public long getMax() {
+        return this.lMax.get();
+    }
+
+    public double getMean() {
+        long lRecorded = this.getCount();
+        return lRecorded == 0 ? 0 : (double) lTotal.get() / lRecorded;
+    }
+
+    //get the value that the given percentage of recorded values are at or below, e.g. 99.9
+    public long getPercentile(double dPercentile) {
+        long lRecorded = this.getCount();
+        if(lRecorded == 0) return 0;
+
+        long lTarget = Math.max(1, (long) Math.ceil(lRecorded * dPercentile / 100));
+        long lSeen = 0;
+        for(int i = 0; i < BUCKETS; i++) {
+            lSeen += alCounts.get(i);
+            if(lSeen >= lTarget) {
+                return Math.min(getBucketTop(i), this.getMax());
+            }
+        }
+        return this.getMax();
+    }
+
+    //small values get a bucket each, larger ones share a bucket with values that have the same top bits
+    private static int getBucket(long lValue) {
+        if(lValue < 2 * SUB_BUCKETS) return (int) lValue;
+        int iShift = 63 - Long.numberOfLeadingZeros(lValue) - SUB_BUCKET_BITS;
+        return iShift * SUB_BUCKETS + (int) (lValue >>> iShift);
+    }
+
+    //the largest value that falls into a bucket
+    private static long getBucketTop(int iBucket) {
+        if(iBucket < 2 * SUB_BUCKETS) return iBucket;
+        int iShift = iBucket / SUB_BUCKETS - 1;
+        long lTop = (iBucket % SUB_BUCKETS) + SUB_BUCKETS;
+        return ((lTop + 1) << iShift) - 1;
+    }
+}
@@ -0,0 +1,26 @@
+package common;
+
+import java.io.IOException;
+
+/**
+ * Interface for the codecs that turn messages into the body of a frame and back again
+ * The codec used by a connection is agreed between the client and server when the connection is made
+ */
+public interface MessageCodec {
+
+    /**
+     * Encode a message into the body of a frame
+     * @param oMessage message to encode
+     * @return the encoded bytes
+     * @throws IOException if the message cannot be encoded
+     */
+    public byte[] encode(Object oMessage) throws IOException;
+
+    /**
+     * Decode the body of a frame back into a message
+     * @param bBody the encoded bytes
+     * @return the decoded message
+     * @throws IOException if the bytes are not a valid message
+     */
+    public Object decode(byte[] bBody) throws IOException;
+}
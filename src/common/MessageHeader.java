@@ -0,0 +1,118 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * Message header class for the header of a message once it has been read, its opcode, connection index and fields
+ * The binary codec reads a header straight into one of these, while a header sent as a string of the form "OPCODE:index:field..."
+ * is parsed into one, so the server and client read either the same way
+ * Messages are sent with one of these as their header too, so neither codec has to split up a string to write it
+ */
+public class MessageHeader implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Opcode opOpcode;
+    private String szOpcode;
+    private int iConnection;
+    private String[] szFields;
+
+    //constructor, the connection index is -1 for a header that does not carry one
+    public MessageHeader(Opcode opOpcode, int iConnection, String... szFields) {
+        this(opOpcode, opOpcode.name(), iConnection, szFields);
+    }
+
+    //constructor for the header of a message that carries no connection index or fields, such as a reply
+    public MessageHeader(Opcode opOpcode) {
+        this(opOpcode, -1);
+    }
+
+    private MessageHeader(Opcode opOpcode, String szOpcode, int iConnection, String[] szFields) {
+        this.opOpcode = opOpcode;
+        this.szOpcode = szOpcode;
+        this.iConnection = iConnection;
+        this.szFields = szFields;
+    }
+
+    //the header of a message, whether it was read as a header or is still a string, or null if it is neither
+    public static MessageHeader of(Object oHeader) {
+        if(oHeader instanceof MessageHeader) return (MessageHeader) oHeader;
+        if(oHeader instanceof String) return parse((String) oHeader);
+        return null;
+    }
+
+    //parse a header of the form "OPCODE:index:field:field..."
+    //an unknown opcode is parsed with a null opcode, and a missing or malformed index as -1, which belongs to no connection
+    public static MessageHeader parse(String szHeader) {
+        int iEnd = szHeader.indexOf(':');
+        String szOpcode = iEnd < 0 ? szHeader : szHeader.substring(0, iEnd);
+        Opcode opOpcode;
+        try {
+            opOpcode = Opcode.valueOf(szOpcode);
+        }
+        catch (IllegalArgumentException iae) {
+            opOpcode = null;
+        }
+        if(iEnd < 0) {
+            return new MessageHeader(opOpcode, szOpcode, -1, new String[0]);
+        }
+
+        int iStart = iEnd + 1;
+        iEnd = szHeader.indexOf(':', iStart);
+        int iConnection;
+        try {
+            iConnection = Integer.parseInt(szHeader, iStart, iEnd < 0 ? szHeader.length() : iEnd, 10);
+        }
+        catch (NumberFormatException nfe) {
+            iConnection = -1;
+        }
+
+        //count the fields first, so they can be cut straight into an array of the right size
+        int iFields = 0;
+        for(int i = iEnd; i >= 0; i = szHeader.indexOf(':', i + 1)) {
+            iFields++;
+        }
+        String[] szFields = new String[iFields];
+        for(int i = 0; i < iFields; i++) {
+            iStart = iEnd + 1;
+            iEnd = szHeader.indexOf(':', iStart);
+            szFields[i] = szHeader.substring(iStart, iEnd < 0 ? szHeader.length() : iEnd);
+        }
+        return new MessageHeader(opOpcode, szOpcode, iConnection, szFields);
+    }
+
+    //getters
+    //the opcode, or null if the header's opcode is not one this side knows
+    public Opcode getOpcode() {
+        return this.opOpcode;
+    }
+
+    //the opcode as it was sent, which is kept even when it is unknown
+    public String getOpcodeName() {
+        return this.szOpcode;
+    }
+
+    public int getConnectionIndex() {
+        return this.iConnection;
+    }
+
+    //a field of the header after the connection index, counting from 0, or null if the header does not have it
+    public String getField(int iField) {
+        return iField < szFields.length ? szFields[iField] : null;
+    }
+
+    public int getFieldCount() {
+        return this.szFields.length;
+    }
+
+    //the header in its string form
+    @Override
+    public String toString() {
+        StringBuilder sbHeader = new StringBuilder(szOpcode);
+        if(iConnection >= 0) sbHeader.append(':').append(iConnection);
+        for(String szField : szFields) {
+            sbHeader.append(':').append(szField);
+        }
+        return sbHeader.toString();
+    }
+}
@@ -0,0 +1,67 @@
+package common;
+
+/**
+ * Opcodes for every message sent between the clients and the server
+ * The code of each opcode is what is written on the wire by the binary codec, so existing codes must never change
+ */
+public enum Opcode {
+    REGISTER(1, true),
+    LOGIN(2, true),
+    GETPOSTCODES(3, true),
+    GETDISHES(4, true),
+    GETORDERS(5, true),
+    CHECKOUT(6, true),
+    CANCELORDER(7, true),
+    SYNCDISHES(8, true),
+    SYNCPOSTCODES(9, true),
+    SUBSCRIBE(10, true),
+    HEARTBEAT(11, true),
+    OPENSESSION(12, true),
+    CLOSESESSION(13, true),
+    SESSION(14, true),
+    QUERYORDERS(15, true),
+    REPLY(64, false),
+    ORDERUPDATE(65, false),
+    BUSY(66, false),
+    ERROR(67, false);
+
+    private static final Opcode[] opByCode = new Opcode[128];
+
+    static {
+        for(Opcode op : values()) {
+            opByCode[op.getCode()] = op;
+        }
+    }
+
+    private int iCode;
+    private boolean bIndexed;
+
+    //constructor
+    Opcode(int iCode, boolean bIndexed) {
+        this.iCode = iCode;
+        this.bIndexed = bIndexed;
+    }
+
+    //getters
+    public int getCode() {
+        return this.iCode;
+    }
+
+    //whether the message header carries the connection index of the client after the opcode
+    public boolean isIndexed() {
+        return this.bIndexed;
+    }
+
+    //whether a message with this opcode answers a request, which the client is waiting on, rather than being pushed to it
+    public boolean isReply() {
+        return this == REPLY || this == BUSY || this == ERROR;
+    }
+
+    //get the opcode for a code read from the wire
+    public static Opcode fromCode(int iCode) {
+        if(iCode < 0 || iCode >= opByCode.length || opByCode[iCode] == null) {
+            throw new IllegalArgumentException("Unknown opcode: " + iCode);
+        }
+        return opByCode[iCode];
+    }
+}
@@ -5,11 +5,19 @@ import java.util.HashMap;
 
 /**
  * Order class that models an order for a particular client, including the contents of the order
+ * The server gives each order an ID when it is placed, which the client uses to refer back to it
  * Made by Alex Lockwood
  */
 
 public class Order extends Model implements Serializable {
 
+    public static final String STATUS_WAITING = "Waiting on Delivery";
+    public static final String STATUS_DELIVERING = "Being Delivered";
+    public static final String STATUS_DELIVERED = "Delivered";
+    public static final String STATUS_CANCELLED = "Cancelled";
+
+    private long lId;
+    private long lPlacedAt;
     private boolean bOrderComplete;
     private User uCustomer;
     private HashMap<Dish, Number> hmClientOrder;
@@ -19,11 +27,20 @@ public class Order extends Model implements Serializable {
     public Order(User uCustomer) {
         this.setOrderCompletion(false);
         this.setCustomer(uCustomer);
-        this.setStatus("Waiting on Delivery");
+        this.setStatus(STATUS_WAITING);
         this.hmClientOrder = new HashMap<>();
     }
 
     //getters
+    public long getId() {
+        return this.lId;
+    }
+
+    //when the order was placed, in milliseconds
+    public long getPlacedAt() {
+        return this.lPlacedAt;
+    }
+
     @Override
     public String getName() {
         return this.uCustomer.getName();
@@ -46,8 +63,19 @@ public class Order extends Model implements Serializable {
     }
 
     //setters
+    public void setId(long lId) {
+        this.lId = lId;
+    }
+
+    public void setPlacedAt(long lPlacedAt) {
+        this.lPlacedAt = lPlacedAt;
+    }
+
+    //the status is changed before listeners are told, so that they see the order as it now is
     public void setOrderCompletion(boolean bOrderComplete) {
+        boolean bOldComplete = this.bOrderComplete;
         this.bOrderComplete = bOrderComplete;
+        this.notifyUpdate("order-complete", bOldComplete, bOrderComplete);
     }
 
     public void setCustomer(User uCustomer) {
@@ -66,11 +94,30 @@ public class Order extends Model implements Serializable {
     }
 
     public void setStatus(String szStatus) {
-        this.notifyUpdate("order-status", this.szStatus, szStatus);
+        String szOldStatus = this.szStatus;
         this.szStatus = szStatus;
+        this.notifyUpdate("order-status", szOldStatus, szStatus);
     }
 
     public void setOrder(HashMap<Dish, Number> hmClientOrder) {
         this.hmClientOrder = hmClientOrder;
     }
+
+    //cancel the order if it has not yet left, returning whether it was cancelled
+    public synchronized boolean cancel() {
+        if(this.getOrderCompletion() || !STATUS_WAITING.equals(this.getStatus())) return false;
+        this.setStatus(STATUS_CANCELLED);
+        return true;
+    }
+
+    //send the order out for delivery unless it has been cancelled, returning whether it was sent
+    public synchronized boolean dispatch() {
+        if(STATUS_CANCELLED.equals(this.getStatus())) return false;
+        this.setStatus(STATUS_DELIVERING);
+        return true;
+    }
+
+    public boolean isCancelled() {
+        return STATUS_CANCELLED.equals(this.getStatus());
+    }
 }
@@ -0,0 +1,36 @@
+package common;
+
+import java.io.Serializable;
+import java.util.List;
+
+/**
+ * Order page class that holds one page of the orders matching an order query
+ * It says whether more orders follow, and the ID to start the next page after
+ */
+public class OrderPage implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<Order> lOrders;
+    private boolean bMore;
+
+    //constructor
+    public OrderPage(List<Order> lOrders, boolean bMore) {
+        this.lOrders = lOrders;
+        this.bMore = bMore;
+    }
+
+    public List<Order> getOrders() {
+        return this.lOrders;
+    }
+
+    //whether there are more matching orders after this page
+    public boolean hasMore() {
+        return this.bMore;
+    }
+
+    //the ID of the last order on this page, for the next query to start after, or 0 if the page is empty
+    public long getLastId() {
+        return lOrders.isEmpty() ? 0 : lOrders.get(lOrders.size() - 1).getId();
+    }
+}
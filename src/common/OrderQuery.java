@@ -0,0 +1,105 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * Order query class that describes one page of orders to fetch, filtered by customer, status and when they were placed
+ * Orders are paged in the order they were placed, and a page starts either at an offset or straight after the last order
+ * of the previous page, which stays quick however deep the paging goes
+ */
+public class OrderQuery implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String szCustomer;
+    private String szStatus;
+    private long lPlacedFrom;
+    private long lPlacedTo;
+    private long lAfterId;
+    private int iOffset;
+    private int iLimit;
+    private boolean bNewestFirst;
+    private boolean bIncludeArchived = true;
+
+    //constructor, for a page of at most the given number of orders
+    public OrderQuery(int iLimit) {
+        this.setLimit(iLimit);
+    }
+
+    //getters
+    public String getCustomer() {
+        return this.szCustomer;
+    }
+
+    public String getStatus() {
+        return this.szStatus;
+    }
+
+    public long getPlacedFrom() {
+        return this.lPlacedFrom;
+    }
+
+    public long getPlacedTo() {
+        return this.lPlacedTo;
+    }
+
+    public long getAfterId() {
+        return this.lAfterId;
+    }
+
+    public int getOffset() {
+        return this.iOffset;
+    }
+
+    public int getLimit() {
+        return this.iLimit;
+    }
+
+    public boolean isNewestFirst() {
+        return this.bNewestFirst;
+    }
+
+    public boolean isIncludeArchived() {
+        return this.bIncludeArchived;
+    }
+
+    //setters
+    //only the orders of the customer with this name, or every customer's if null
+    public void setCustomer(String szCustomer) {
+        this.szCustomer = szCustomer;
+    }
+
+    //only the orders with this status, or any status if null
+    public void setStatus(String szStatus) {
+        this.szStatus = szStatus;
+    }
+
+    //only the orders placed from the first time up to but not including the second, in milliseconds, where 0 leaves that end open
+    public void setPlacedBetween(long lPlacedFrom, long lPlacedTo) {
+        this.lPlacedFrom = lPlacedFrom;
+        this.lPlacedTo = lPlacedTo;
+    }
+
+    //start the page after the order with this ID, as given by the last page, or from the start if 0
+    public void setAfterId(long lAfterId) {
+        this.lAfterId = lAfterId;
+    }
+
+    //skip this many matching orders before the page starts
+    public void setOffset(int iOffset) {
+        this.iOffset = Math.max(0, iOffset);
+    }
+
+    public void setLimit(int iLimit) {
+        this.iLimit = Math.max(1, iLimit);
+    }
+
+    public void setNewestFirst(boolean bNewestFirst) {
+        this.bNewestFirst = bNewestFirst;
+    }
+
+    //whether orders that have been archived are included along with the live ones
+    public void setIncludeArchived(boolean bIncludeArchived) {
+        this.bIncludeArchived = bIncludeArchived;
+    }
+}
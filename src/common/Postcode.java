@@ -32,13 +32,16 @@ public class Postcode extends Model implements Serializable {
     }
 
     //setters
+    //each value is changed before listeners are told, so that a listener versioning the postcodes sees the postcode as it now is
     public void setPostcode(String szPostcode) {
-        this.notifyUpdate("postcode", this.szPostcode, szPostcode);
+        String szOldPostcode = this.szPostcode;
         this.szPostcode = szPostcode;
+        this.notifyUpdate("postcode", szOldPostcode, szPostcode);
     }
 
     public void setDistance(Number iDistance) {
-        this.notifyUpdate("postcode-dist", this.iDistance, iDistance);
+        Number nOldDistance = this.iDistance;
         this.iDistance = iDistance;
+        this.notifyUpdate("postcode-dist", nOldDistance, iDistance);
     }
 }
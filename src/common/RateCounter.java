@@ -0,0 +1,61 @@
+package common;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Rate counter class that counts events into one slot per second for the last minute, to report how often they happen
+ * Counting never blocks, at the cost of possibly losing a count made at the same moment its slot moves to a new second
+ */
+public class RateCounter {
+
+    private static final int WINDOW = 60;
+
+    private AtomicLongArray alCounts = new AtomicLongArray(WINDOW);
+    private AtomicLongArray alSeconds = new AtomicLongArray(WINDOW);
+    private AtomicLong lTotal = new AtomicLong();
+
+    //count a single event
+    public void record() {
+        long lSecond = System.currentTimeMillis() / 1000;
+        int iSlot = (int) (lSecond % WINDOW);
+
+        //the slot last held an older second, so start it again
+        long lSlotSecond = alSeconds.get(iSlot);
+        if(lSlotSecond != lSecond && alSeconds.compareAndSet(iSlot, lSlotSecond, lSecond)) {
+            alCounts.set(iSlot, 0);
+        }
+        alCounts.incrementAndGet(iSlot);
+        lTotal.incrementAndGet();
+    }
+
+    //the number of events ever counted
+    public long getTotal() {
+        return this.lTotal.get();
+    }
+
+    //the average events per second over the last few seconds, up to a minute
+    public double getRate(int iSeconds) {
+        iSeconds = Math.max(1, Math.min(WINDOW, iSeconds));
+        long lNow = System.currentTimeMillis() / 1000;
+        long lEvents = 0;
+        for(int i = 0; i < WINDOW; i++) {
+            if(lNow - alSeconds.get(i) < iSeconds) {
+                lEvents += alCounts.get(i);
+            }
+        }
+        return (double) lEvents / iSeconds;
+    }
+
+    //the most events counted in any one second of the last minute
+    public long getPeakRate() {
+        long lNow = System.currentTimeMillis() / 1000;
+        long lPeak = 0;
+        for(int i = 0; i < WINDOW; i++) {
+            if(lNow - alSeconds.get(i) < WINDOW) {
+                lPeak = Math.max(lPeak, alCounts.get(i));
+            }
+        }
+        return lPeak;
+    }
+}
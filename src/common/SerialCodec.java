@@ -0,0 +1,29 @@
+package common;
+
+import java.io.*;
+
+/**
+ * Codec that encodes messages using Java serialization
+ * Used when either side of the connection does not support the binary codec
+ */
+public class SerialCodec implements MessageCodec {
+
+    @Override
+    public byte[] encode(Object oMessage) throws IOException {
+        ByteArrayOutputStream baosOutput = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oosOutput = new ObjectOutputStream(baosOutput)) {
+            oosOutput.writeObject(oMessage);
+        }
+        return baosOutput.toByteArray();
+    }
+
+    @Override
+    public Object decode(byte[] bBody) throws IOException {
+        try (ObjectInputStream oisInput = new ObjectInputStream(new ByteArrayInputStream(bBody))) {
+            return oisInput.readObject();
+        }
+        catch (ClassNotFoundException cnfe) {
+            throw new IOException("Unknown class in message", cnfe);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package common;
+
+/**
+ * Settings class that holds the tunable options for the restaurant and its comms layer
+ * Every option is read from the system properties, e.g. -Dsushi.comms.engine=nio, and falls back to a default if not given
+ */
+public class Settings {
+
+    //comms options
+    public static final String COMMS_ENGINE = "sushi.comms.engine";
+    public static final String COMMS_HOST = "sushi.comms.host";
+    public static final String COMMS_PORT = "sushi.comms.port";
+    public static final String COMMS_IO_THREADS = "sushi.comms.iothreads";
+    public static final String COMMS_BINARY = "sushi.comms.binary";
+    public static final String COMMS_COMPRESSION = "sushi.comms.compression";
+    public static final String COMMS_COMPRESSION_THRESHOLD = "sushi.comms.compression.threshold";
+    public static final String COMMS_HEARTBEAT = "sushi.comms.heartbeat";
+    public static final String COMMS_IDLE_TIMEOUT = "sushi.comms.idletimeout";
+    public static final String COMMS_OUTBOUND_CAPACITY = "sushi.comms.outbound.capacity";
+    public static final String COMMS_OUTBOUND_POLICY = "sushi.comms.outbound.policy";
+    public static final String COMMS_BUSY_RETRIES = "sushi.comms.busyretries";
+    public static final String COMMS_REQUEST_TIMEOUT = "sushi.comms.requesttimeout";
+
+    //server options
+    public static final String SERVER_WORKERS = "sushi.server.workers";
+    public static final String SERVER_ENDPOINTS = "sushi.server.endpoints";
+    public static final String SERVER_BACKLOG = "sushi.server.backlog";
+    public static final String SERVER_ACCEPTORS = "sushi.server.acceptors";
+    public static final String SERVER_QUEUE_CAPACITY = "sushi.server.queue.capacity";
+    public static final String SERVER_CONNECTION_SHARE = "sushi.server.queue.share";
+    public static final String SERVER_RETRY_AFTER = "sushi.server.retryafter";
+    public static final String SERVER_VIRTUAL_THREADS = "sushi.server.virtualthreads";
+    public static final String SERVER_SHUTDOWN_TIMEOUT = "sushi.server.shutdown.timeout";
+    public static final String SERVER_ORDER_RETENTION = "sushi.server.orders.retention";
+
+    //load generator options
+    public static final String LOAD_CLIENTS = "sushi.load.clients";
+    public static final String LOAD_DURATION = "sushi.load.duration";
+    public static final String LOAD_MIX = "sushi.load.mix";
+    public static final String LOAD_THINK_TIME = "sushi.load.think";
+    public static final String LOAD_SESSIONS_PER_CONNECTION = "sushi.load.multiplex";
+
+    //comms engines that can be selected at startup
+    public static final String ENGINE_BLOCKING = "blocking";
+    public static final String ENGINE_NIO = "nio";
+
+    private Settings() {
+    }
+
+    //get a string option, or the default if it is not set
+    public static String getString(String szKey, String szDefault) {
+        String szValue = System.getProperty(szKey);
+        if(szValue == null || szValue.trim().equals("")) {
+            return szDefault;
+        }
+        return szValue.trim();
+    }
+
+    //get an integer option, or the default if it is not set or not a number
+    public static int getInt(String szKey, int iDefault) {
+        try {
+            return Integer.parseInt(getString(szKey, Integer.toString(iDefault)));
+        }
+        catch (NumberFormatException nfe) {
+            return iDefault;
+        }
+    }
+
+    //get a long option, or the default if it is not set or not a number
+    public static long getLong(String szKey, long lDefault) {
+        try {
+            return Long.parseLong(getString(szKey, Long.toString(lDefault)));
+        }
+        catch (NumberFormatException nfe) {
+            return lDefault;
+        }
+    }
+
+    //get a boolean option, or the default if it is not set
+    public static boolean getBoolean(String szKey, boolean bDefault) {
+        return Boolean.parseBoolean(getString(szKey, Boolean.toString(bDefault)));
+    }
+}
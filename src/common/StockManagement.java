@@ -3,13 +3,19 @@ package common;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
 
 /**
  * The stock-management class that handles all the processing of stock for the business
  * Handles what dishes and ingredients are used the sushi business, their stock levels, restock thresholds, restock amounts
  * Also handles queues for dishes which the staff will make and ingredients and orders that drones will collect or deliver
+ * Staff and drones wait for work on locks and conditions rather than monitors, so they can run on virtual threads
  * Made by Alex Lockwood
  */
 public class StockManagement {
@@ -29,8 +35,43 @@ public class StockManagement {
     private LinkedBlockingQueue<Ingredient> qIngsToCollect;
     private LinkedBlockingQueue<Order> qOrderToDeliver;
 
+    private VersionedCatalog<Dish> vcDishes;
+    private ConcurrentHashMap<Long, Dish> hmDishesById = new ConcurrentHashMap<>();
+    private ConcurrentHashMap<String, Dish> hmDishesByName = new ConcurrentHashMap<>();
+    private AtomicLong lNextDishId = new AtomicLong();
+    private UpdateListener ulDishRenamed;
+    private UpdateListener ulIngredientChanged;
+    private Set<Supplier> hsWatchedSuppliers = ConcurrentHashMap.newKeySet();
+    private EncodedSnapshot esMenu;
+    private EncodedSnapshot esMenuDelta;
+
+    private ReentrantLock rlKitchen = new ReentrantLock();
+    private Condition cDishesToMake = rlKitchen.newCondition();
+    private ReentrantLock rlDeliveries = new ReentrantLock();
+    private Condition cDeliveriesToMake = rlDeliveries.newCondition();
+
     //constructor
     public StockManagement() {
+        this.vcDishes = new VersionedCatalog<>();
+        //a renamed dish is moved to its new name in the name index
+        this.ulDishRenamed = updateEvent -> {
+            if(!"name".equals(updateEvent.property) || !this.containsDish((Dish) updateEvent.model)) return;
+            if(updateEvent.oldValue != null) hmDishesByName.remove(updateEvent.oldValue.toString(), updateEvent.model);
+            if(updateEvent.newValue != null) hmDishesByName.putIfAbsent(updateEvent.newValue.toString(), (Dish) updateEvent.model);
+        };
+        //ingredients and their suppliers are sent inside each recipe, so changing one changes every dish that uses it
+        this.ulIngredientChanged = updateEvent -> {
+            if(updateEvent.model instanceof Ingredient) {
+                Ingredient inFood = (Ingredient) updateEvent.model;
+                this.watchSupplier(inFood.getSupplier());
+                this.changedDishesUsing(inRecipe -> inRecipe == inFood);
+            }
+            else if(updateEvent.model instanceof Supplier) {
+                this.changedDishesUsing(inRecipe -> inRecipe.getSupplier() == updateEvent.model);
+            }
+        };
+        //the encoded menu is thrown away as soon as the catalog changes, rather than when it is next asked for
+        this.vcDishes.setChangeHook(this::invalidateMenu);
         this.setDishesList(new ArrayList<>());
         this.setIfRestockingDish(true);
         this.setDishStocks(new ConcurrentHashMap<>());
@@ -93,13 +134,104 @@ public class StockManagement {
     }
 
     public synchronized Dish addToList(Dish dDish) {
-        if(!this.getDishesList().contains(dDish)) {
+        if(!this.containsDish(dDish)) {
+            if(dDish.getId() == 0) dDish.setId(lNextDishId.incrementAndGet());
             this.getDishesList().add(dDish);
+            hmDishesById.put(dDish.getId(), dDish);
+            //if two dishes share a name, the first one added is the one found by it
+            if(dDish.getName() != null) hmDishesByName.putIfAbsent(dDish.getName(), dDish);
+            dDish.addUpdateListener(ulDishRenamed);
+            this.vcDishes.added(dDish);
             return dDish;
         }
         else return null;
     }
 
+    public synchronized boolean removeFromList(Dish dDish) {
+        if(this.containsDish(dDish) && this.getDishesList().remove(dDish)) {
+            hmDishesById.remove(dDish.getId(), dDish);
+            if(dDish.getName() != null) hmDishesByName.remove(dDish.getName(), dDish);
+            this.vcDishes.removed(dDish);
+            return true;
+        }
+        else return false;
+    }
+
+    //whether this exact dish is on the menu
+    public boolean containsDish(Dish dDish) {
+        return dDish != null && hmDishesById.get(dDish.getId()) == dDish;
+    }
+
+    //the dish on the menu with the given ID, or null if there is none
+    public Dish getDish(long lId) {
+        return hmDishesById.get(lId);
+    }
+
+    //the dish on the menu with the given name, or null if there is none
+    public Dish getDish(String szName) {
+        return szName == null ? null : hmDishesByName.get(szName);
+    }
+
+    //the dish on the menu that a copy of a dish, such as one sent by a client, stands for, found by its ID and then by its name
+    public Dish resolveDish(Dish dDish) {
+        Dish dCanonical = this.getDish(dDish.getId());
+        return dCanonical != null ? dCanonical : this.getDish(dDish.getName());
+    }
+
+    //the version of the dish catalog, which goes up whenever a dish is added, changed or removed
+    public long getDishCatalogVersion() {
+        return this.vcDishes.getVersion();
+    }
+
+    //get the dishes added, changed and removed since the given version of the dish catalog
+    public synchronized CatalogDelta<Dish> getDishesDelta(long lSinceVersion) {
+        return this.vcDishes.getDelta(lSinceVersion, this.getDishesList());
+    }
+
+    //the whole menu, encoded once and sent as it is to every client until a dish is added, changed or removed
+    public synchronized EncodedSnapshot getMenuSnapshot() {
+        long lVersion = this.getDishCatalogVersion();
+        if(esMenu == null || esMenu.getVersion() != lVersion) {
+            esMenu = new EncodedSnapshot(new ArrayList<>(this.getDishesList()), lVersion);
+        }
+        return esMenu;
+    }
+
+    //every dish as a change from an empty catalog, which is what each new client asks for first
+    public synchronized EncodedSnapshot getMenuDeltaSnapshot() {
+        long lVersion = this.getDishCatalogVersion();
+        if(esMenuDelta == null || esMenuDelta.getVersion() != lVersion) {
+            CatalogDelta<Dish> cdMenu = this.getDishesDelta(0);
+            esMenuDelta = new EncodedSnapshot(cdMenu, cdMenu.getVersion());
+        }
+        return esMenuDelta;
+    }
+
+    //throw away the encoded menu, which is done whenever the dish catalog moves onto a new version
+    public synchronized void invalidateMenu() {
+        this.esMenu = null;
+        this.esMenuDelta = null;
+    }
+
+    //mark every dish with an ingredient in its recipe that passes the test as changed
+    private synchronized void changedDishesUsing(Predicate<Ingredient> pUses) {
+        for(Dish dDish : this.getDishesList()) {
+            for(Ingredient inRecipe : new ArrayList<>(dDish.getRecipe().keySet())) {
+                if(pUses.test(inRecipe)) {
+                    this.vcDishes.changed(dDish);
+                    break;
+                }
+            }
+        }
+    }
+
+    //listen for changes to a supplier of the ingredients, once however many ingredients it supplies
+    private void watchSupplier(Supplier sSupplier) {
+        if(sSupplier != null && hsWatchedSuppliers.add(sSupplier)) {
+            sSupplier.addUpdateListener(ulIngredientChanged);
+        }
+    }
+
     private synchronized void setDishStocks(ConcurrentHashMap<Dish, Number> hmDishStocks) {
         this.hmDishStocks = hmDishStocks;
     }
@@ -114,13 +246,14 @@ public class StockManagement {
             for(int i = 0; i + iCurrentStock < iLimit ; i++) {
                 this.addToDishesQueue(dDish);
             }
-            //notify all staff of new dishes that have arrived
-            synchronized (this.getDishesList()) {
-                this.getDishesList().notifyAll();
-            }
         }
     }
 
+    //take a number of a dish out of stock, such as when an order is placed
+    public synchronized void removeFromStock(Dish dDish, int iAmount) {
+        this.setStockLevel(dDish, this.getStockLevel(dDish).intValue() - iAmount);
+    }
+
     public synchronized void addToStock(Dish dDish) {
         this.getAllDishStockLevels().put(dDish, this.getStockLevel(dDish).intValue() + 1);
     }
@@ -187,6 +320,8 @@ public class StockManagement {
     public void addToList(Ingredient inFood)  {
         if(!this.getIngredientsList().contains(inFood)) {
             this.getIngredientsList().add(inFood);
+            inFood.addUpdateListener(ulIngredientChanged);
+            this.watchSupplier(inFood.getSupplier());
         }
     }
 
@@ -195,20 +330,22 @@ public class StockManagement {
     }
 
     public void setStockLevel(Ingredient inFood, Number iStock) {
-        this.getAllIngStockLevels().put(inFood, iStock);
+        Number nOldStock = this.getAllIngStockLevels().put(inFood, iStock);
+        //staff may have been waiting on this ingredient, such as when the stock is set by hand or loaded from a file
+        if(nOldStock == null || iStock.intValue() > nOldStock.intValue()) {
+            this.signalKitchen();
+        }
 
         //if the stock level is less than the threshold and allowed to restock, add the ingredient to the queue for collection
         if(this.getStockLevel(inFood).intValue() < this.getRestockThreshold(inFood).intValue() && this.getIfRestockingIng()) {
-            synchronized (this.getIngredientsList()) {
-                this.addToIngredientsQueue(inFood);
-                //notify one drone
-                this.getIngredientsList().notify();
-            }
+            this.addToIngredientsQueue(inFood);
         }
     }
 
     public synchronized void addToStock(Ingredient inFood) {
         this.getAllIngStockLevels().put(inFood, this.getRestockThreshold(inFood).intValue() + this.getRestockAmount(inFood).intValue());
+        //staff may have been waiting on this ingredient
+        this.signalKitchen();
     }
 
     private void setIngredientRestockThreshold(ConcurrentHashMap<Ingredient, Number> hmIngredientRestockThreshold) {
@@ -242,13 +379,98 @@ public class StockManagement {
 
     public void addToDishesQueue(Dish dDish) {
         this.getDishesQueue().add(dDish);
+        this.signalKitchen();
     }
 
     public void addToIngredientsQueue(Ingredient inIngredient) {
         this.getIngredientsQueue().add(inIngredient);
+        this.signalDeliveries();
     }
 
     public void addToOrderQueue(Order oOrder) {
         this.getOrderQueue().add(oOrder);
+        this.signalDeliveries();
+    }
+
+    //WAITING FOR WORK
+    //wait until the dish at the front of the queue can be made, then take it and use up its ingredients
+    public Dish takeDishToMake() throws InterruptedException {
+        rlKitchen.lockInterruptibly();
+        try {
+            while(true) {
+                Dish dDish = this.getDishesQueue().peek();
+                if(dDish != null && this.hasIngredientsFor(dDish)) {
+                    this.getDishesQueue().poll();
+                    for(Ingredient i : dDish.getRecipe().keySet()) {
+                        this.setStockLevel(i, this.getStockLevel(i).intValue() - dDish.getRecipe().get(i).intValue());
+                    }
+                    return dDish;
+                }
+                cDishesToMake.await();
+            }
+        }
+        finally {
+            rlKitchen.unlock();
+        }
+    }
+
+    //put back a dish that was taken to be made but never finished, along with the ingredients it used up
+    public void returnDishToMake(Dish dDish) {
+        rlKitchen.lock();
+        try {
+            //set directly, as the ingredients were already queued for restocking when they were used
+            for(Ingredient i : dDish.getRecipe().keySet()) {
+                this.getAllIngStockLevels().put(i, this.getStockLevel(i).intValue() + dDish.getRecipe().get(i).intValue());
+            }
+            this.addToDishesQueue(dDish);
+        }
+        finally {
+            rlKitchen.unlock();
+        }
+    }
+
+    //whether there is enough of every ingredient to make a dish
+    private boolean hasIngredientsFor(Dish dDish) {
+        for(Ingredient i : dDish.getRecipe().keySet()) {
+            if(dDish.getRecipe().get(i).intValue() > this.getStockLevel(i).intValue()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //wait until there is an order to deliver or an ingredient to collect
+    public void awaitDeliveries() throws InterruptedException {
+        rlDeliveries.lockInterruptibly();
+        try {
+            while(this.getOrderQueue().isEmpty() && this.getIngredientsQueue().isEmpty()) {
+                cDeliveriesToMake.await();
+            }
+        }
+        finally {
+            rlDeliveries.unlock();
+        }
+    }
+
+    //wake the staff to check the dishes queue again
+    private void signalKitchen() {
+        rlKitchen.lock();
+        try {
+            cDishesToMake.signalAll();
+        }
+        finally {
+            rlKitchen.unlock();
+        }
+    }
+
+    //wake a drone to check the delivery queues again
+    private void signalDeliveries() {
+        rlDeliveries.lock();
+        try {
+            cDeliveriesToMake.signal();
+        }
+        finally {
+            rlDeliveries.unlock();
+        }
     }
 }
@@ -30,13 +30,15 @@ public class Supplier extends Model implements Serializable {
 
     //setters
     public void setName(String szName) {
-        this.notifyUpdate("name", this.getName(), szName);
+        String szOldName = this.getName();
         this.szName = szName;
+        this.notifyUpdate("name", szOldName, szName);
     }
 
     public void setDistance(Number iDistance) {
-        this.notifyUpdate("distance", this.getDistance(), iDistance);
+        Number iOldDistance = this.getDistance();
         this.iDistance = iDistance;
+        this.notifyUpdate("distance", iOldDistance, iDistance);
     }
 
 }
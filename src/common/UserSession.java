@@ -0,0 +1,30 @@
+package common;
+
+import java.io.Serializable;
+
+/**
+ * User session class that is sent back to a client when a user registers or logs in
+ * Holds the session token the client sends with each later request in place of the whole user, and the user it stands for
+ */
+public class UserSession implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private String szToken;
+    private User uUser;
+
+    //constructor
+    public UserSession(String szToken, User uUser) {
+        this.szToken = szToken;
+        this.uUser = uUser;
+    }
+
+    //getters
+    public String getToken() {
+        return this.szToken;
+    }
+
+    public User getUser() {
+        return this.uUser;
+    }
+}
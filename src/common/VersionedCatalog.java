@@ -0,0 +1,111 @@
+package common;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Versioned catalog class that tracks the changes made to a catalog of models, such as the dishes or postcodes
+ * Every change moves the catalog onto a new, higher version and stamps the changed entry with it, so a client can be sent
+ * only the entries added, changed or removed since the last version it saw
+ */
+public class VersionedCatalog<T extends Model> {
+
+    //the properties that hold the name an entry is known by in the catalog, so a change to any of them is a rename
+    private static final Set<String> KEY_PROPERTIES = Set.of("name", "postcode");
+
+    private AtomicLong lVersion;
+    //keyed by model rather than entry type, so the change listener can stamp an entry it is only given as a model
+    private ConcurrentHashMap<Model, Long> hmEntryVersions;
+    private ConcurrentHashMap<String, Long> hmRemovedVersions;
+    private UpdateListener ulChangeListener;
+    private volatile Runnable rChangeHook;
+
+    //constructor
+    public VersionedCatalog() {
+        this.lVersion = new AtomicLong();
+        this.hmEntryVersions = new ConcurrentHashMap<>();
+        this.hmRemovedVersions = new ConcurrentHashMap<>();
+
+        //when an entry is updated, stamp it again, and if it was renamed remove its old name from the clients
+        this.ulChangeListener = updateEvent -> {
+            if(updateEvent.model == null || !hmEntryVersions.containsKey(updateEvent.model)) return;
+            if(KEY_PROPERTIES.contains(updateEvent.property) && updateEvent.oldValue != null) {
+                hmRemovedVersions.put(updateEvent.oldValue.toString(), this.nextVersion());
+            }
+            this.stamp(updateEvent.model);
+        };
+    }
+
+    //get the current version of the catalog
+    public long getVersion() {
+        return this.lVersion.get();
+    }
+
+    //run the given hook every time the catalog moves onto a new version, such as to throw away anything built from the old one
+    public void setChangeHook(Runnable rChangeHook) {
+        this.rChangeHook = rChangeHook;
+    }
+
+    //move the catalog onto a new version, returning it
+    private long nextVersion() {
+        long lNewVersion = lVersion.incrementAndGet();
+        Runnable rHook = this.rChangeHook;
+        if(rHook != null) rHook.run();
+        return lNewVersion;
+    }
+
+    //track a new entry in the catalog
+    public void added(T tEntry) {
+        if(tEntry.getName() != null) {
+            hmRemovedVersions.remove(tEntry.getName());
+        }
+        hmEntryVersions.put(tEntry, this.nextVersion());
+        tEntry.addUpdateListener(ulChangeListener);
+    }
+
+    //mark an entry as changed, such as a new price or recipe
+    public void changed(T tEntry) {
+        this.stamp(tEntry);
+    }
+
+    //stamp a tracked entry with a new version, leaving anything not in the catalog alone
+    private void stamp(Model mEntry) {
+        if(hmEntryVersions.containsKey(mEntry)) {
+            hmEntryVersions.put(mEntry, this.nextVersion());
+        }
+    }
+
+    //stop tracking an entry and remember its removal so clients can be told about it
+    public void removed(T tEntry) {
+        if(hmEntryVersions.remove(tEntry) != null && tEntry.getName() != null) {
+            hmRemovedVersions.put(tEntry.getName(), this.nextVersion());
+        }
+    }
+
+    //get every change made to the catalog after the given version, from the current list of entries
+    public CatalogDelta<T> getDelta(long lSinceVersion, List<T> lEntries) {
+        //read the version first, so a change made while building the delta is sent again next time rather than lost
+        long lCurrentVersion = this.getVersion();
+
+        List<T> lChanged = new ArrayList<>();
+        for(T tEntry : new ArrayList<>(lEntries)) {
+            Long lEntryVersion = hmEntryVersions.get(tEntry);
+            if(lEntryVersion != null && lEntryVersion > lSinceVersion) {
+                lChanged.add(tEntry);
+            }
+        }
+
+        List<String> lRemoved = new ArrayList<>();
+        for(Map.Entry<String, Long> eRemoved : hmRemovedVersions.entrySet()) {
+            if(eRemoved.getValue() > lSinceVersion) {
+                lRemoved.add(eRemoved.getKey());
+            }
+        }
+
+        return new CatalogDelta<>(lCurrentVersion, lChanged, lRemoved);
+    }
+}
@@ -0,0 +1,75 @@
+package common;
+
+import java.lang.reflect.Method;
+
+/**
+ * Workers class that creates the threads for the long-lived, mostly blocked runnables such as connections, staff and drones
+ * When -Dsushi.server.virtualthreads=true is given and the Java version has virtual threads, they are run on virtual threads
+ * Otherwise each runs on a platform thread as before, and on an older Java version the setting is logged once as ignored
+ */
+public class Workers {
+
+    private static Method mOfVirtual;
+    private static volatile Method mUnstarted;
+
+    static {
+        if(Settings.getBoolean(Settings.SERVER_VIRTUAL_THREADS, false)) {
+            //looked up by reflection, so this still compiles and runs on versions without virtual threads
+            try {
+                Method mBuilder = Thread.class.getMethod("ofVirtual");
+                Method mThread = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+                mThread.invoke(mBuilder.invoke(null), (Runnable) () -> {});
+                mOfVirtual = mBuilder;
+                mUnstarted = mThread;
+            }
+            catch (ReflectiveOperationException | RuntimeException e) {
+                unavailable(e);
+            }
+        }
+    }
+
+    private Workers() {
+    }
+
+    //log that virtual threads were asked for but cannot be used, so the setting is not mistaken for working
+    private static void unavailable(Exception e) {
+        System.out.println("Virtual threads are not available on Java " + Runtime.version().feature() + ", ignoring "
+                + Settings.SERVER_VIRTUAL_THREADS + "=true and using platform threads: " + e);
+    }
+
+    //whether new workers are run on virtual threads
+    public static boolean isVirtual() {
+        return mUnstarted != null;
+    }
+
+    //create a thread for a runnable without starting it, virtual threads are always daemons
+    public static Thread newThread(String szName, Runnable rWorker, boolean bDaemon) {
+        if(isVirtual()) {
+            try {
+                Thread tWorker = (Thread) mUnstarted.invoke(mOfVirtual.invoke(null), rWorker);
+                tWorker.setName(szName);
+                return tWorker;
+            }
+            catch (ReflectiveOperationException roe) {
+                //stop trying, so the fallback is only logged once rather than for every worker
+                synchronized (Workers.class) {
+                    if(mUnstarted != null) {
+                        mUnstarted = null;
+                        unavailable(roe);
+                    }
+                }
+            }
+        }
+
+        Thread tWorker = new Thread(rWorker, szName);
+        tWorker.setDaemon(bDaemon);
+        return tWorker;
+    }
+
+    //create and start a thread for a runnable
+    public static Thread start(String szName, Runnable rWorker, boolean bDaemon) {
+        Thread tWorker = newThread(szName, rWorker, bDaemon);
+        tWorker.start();
+        return tWorker;
+    }
+}
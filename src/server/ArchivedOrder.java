@@ -0,0 +1,87 @@
+package server;
+
+import common.Dish;
+import common.Order;
+import common.StockManagement;
+import common.User;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Archived order class that keeps a finished order in a compact form once it has left the server's live orders
+ * Only what is needed to show the order again is kept, the customer's name, each dish's name, price and amount, and the status,
+ * so an archived order holds no listeners and no references to the live users and dishes
+ */
+public class ArchivedOrder {
+
+    private final long lId;
+    private final long lPlacedAt;
+    private final String szCustomer;
+    private final String szStatus;
+    private final long lArchivedAt;
+    private final String[] szDishes;
+    private final double[] dPrices;
+    private final int[] iAmounts;
+
+    //constructor, taking a copy of a finished order
+    public ArchivedOrder(Order oOrder, long lArchivedAt) {
+        this.lId = oOrder.getId();
+        this.lPlacedAt = oOrder.getPlacedAt();
+        this.szCustomer = oOrder.getCustomer() == null ? null : oOrder.getCustomer().getName();
+        this.szStatus = oOrder.getStatus();
+        this.lArchivedAt = lArchivedAt;
+
+        Map<Dish, Number> hmLines = new HashMap<>(oOrder.getClientOrder());
+        this.szDishes = new String[hmLines.size()];
+        this.dPrices = new double[hmLines.size()];
+        this.iAmounts = new int[hmLines.size()];
+        int i = 0;
+        for(Map.Entry<Dish, Number> eLine : hmLines.entrySet()) {
+            szDishes[i] = eLine.getKey().getName();
+            dPrices[i] = eLine.getKey().getPrice();
+            iAmounts[i++] = eLine.getValue().intValue();
+        }
+    }
+
+    //getters
+    public long getId() {
+        return this.lId;
+    }
+
+    public long getPlacedAt() {
+        return this.lPlacedAt;
+    }
+
+    public String getStatus() {
+        return this.szStatus;
+    }
+
+    public String getCustomerName() {
+        return this.szCustomer;
+    }
+
+    public long getArchivedAt() {
+        return this.lArchivedAt;
+    }
+
+    //rebuild the order, using the dishes still on the menu and the customer if they are still registered,
+    //and stand-ins carrying the archived names and prices for any that have since gone
+    public Order toOrder(StockManagement smStock, User uCustomer) {
+        Order oOrder = new Order(uCustomer != null ? uCustomer : new User(szCustomer, null, null, null));
+        oOrder.setId(lId);
+        oOrder.setPlacedAt(lPlacedAt);
+        HashMap<Dish, Number> hmLines = new HashMap<>();
+        for(int i = 0; i < szDishes.length; i++) {
+            Dish dDish = smStock.getDish(szDishes[i]);
+            if(dDish == null || dDish.getPrice() != dPrices[i]) {
+                dDish = new Dish(szDishes[i], "", dPrices[i]);
+            }
+            hmLines.put(dDish, iAmounts[i]);
+        }
+        oOrder.setOrder(hmLines);
+        oOrder.setOrderCompletion(true);
+        oOrder.setStatus(szStatus);
+        return oOrder;
+    }
+}
@@ -0,0 +1,155 @@
+package server;
+
+import common.MessageHeader;
+import common.Settings;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Base class for a single client connection held by the comms server
+ * Extended by both the blocking and the NIO comms engines, and tracks the connection's ID and when it was last heard from
+ * Messages to the client go through a bounded outbound queue, so a slow client cannot hold up the thread sending to it
+ */
+public abstract class ClientConnection {
+
+    /**
+     * What to do when a client falls so far behind that its outbound queue is full
+     * Only pushes are ever dropped, a reply that does not fit always disconnects the client, as the client would wait on it forever
+     */
+    public enum SlowConsumerPolicy {
+        DROP,
+        DISCONNECT
+    }
+
+    protected static final int OUTBOUND_CAPACITY = Settings.getInt(Settings.COMMS_OUTBOUND_CAPACITY, 1024);
+    private static final SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.valueOf(
+            Settings.getString(Settings.COMMS_OUTBOUND_POLICY, SlowConsumerPolicy.DISCONNECT.name()).toUpperCase());
+
+    private int iConnectionId = -1;
+    private AtomicLong lDroppedMessages = new AtomicLong();
+    private AtomicInteger iPendingMessages = new AtomicInteger();
+    //the logical sessions carried over this connection by their IDs, looked up for every message the connection reads
+    private Map<Integer, LogicalConnection> hmSessions = new ConcurrentHashMap<>();
+    private volatile long lLastActivity = System.currentTimeMillis();
+    private AtomicBoolean bClosed = new AtomicBoolean();
+    protected CommsServer csServer;
+
+    //constructor
+    protected ClientConnection(CommsServer csServer) {
+        this.csServer = csServer;
+    }
+
+    /**
+     * Queue a message to be written to the client by the connection's writer
+     * @param oMessage message to send
+     * @return false if the outbound queue is full
+     */
+    protected abstract boolean queueMessage(Object oMessage);
+
+    /**
+     * Close the socket or channel underneath this connection
+     */
+    protected abstract void closeTransport();
+
+    /**
+     * The number of messages waiting to be written to the client
+     */
+    protected abstract int getQueuedMessages();
+
+    //write a message to the client on the other end of this connection, without waiting for it to be sent
+    public void writeMessage(Object oMessage) {
+        if(this.isClosed() || this.queueMessage(oMessage)) return;
+
+        //the client is not keeping up with its messages
+        if(slowConsumerPolicy == SlowConsumerPolicy.DISCONNECT || isReply(oMessage)) {
+            System.out.println("Disconnecting slow client " + iConnectionId);
+            this.close();
+        }
+        else if(lDroppedMessages.getAndIncrement() == 0) {
+            System.out.println("Dropping messages to slow client " + iConnectionId);
+        }
+    }
+
+    //whether a message answers a request, which a client waits on, rather than being pushed to it
+    static boolean isReply(Object oMessage) {
+        if(!(oMessage instanceof Object[]) || ((Object[]) oMessage).length == 0) return false;
+        MessageHeader mhHeader = MessageHeader.of(((Object[]) oMessage)[0]);
+        return mhHeader != null && mhHeader.getOpcode() != null && mhHeader.getOpcode().isReply();
+    }
+
+    //the number of pushes dropped because the client was too slow
+    public long getDroppedMessages() {
+        return this.lDroppedMessages.get();
+    }
+
+    //close the connection once, removing it from the comms server along with any sessions it carries
+    public void close() {
+        if(bClosed.compareAndSet(false, true)) {
+            this.closeTransport();
+            csServer.removeConnection(this);
+            for(LogicalConnection lcSession : hmSessions.values()) {
+                lcSession.close();
+            }
+        }
+    }
+
+    //add a logical session carried over this connection
+    void addSession(LogicalConnection lcSession) {
+        hmSessions.put(lcSession.getConnectionId(), lcSession);
+        //the connection may have closed while the session was being opened
+        if(this.isClosed()) {
+            lcSession.close();
+        }
+    }
+
+    void removeSession(LogicalConnection lcSession) {
+        hmSessions.remove(lcSession.getConnectionId(), lcSession);
+    }
+
+    //the logical session with the given ID if it is carried over this connection, or this connection if the ID is its own
+    ClientConnection getSession(int iIndex) {
+        if(iIndex == this.iConnectionId) return this;
+        return hmSessions.get(iIndex);
+    }
+
+    //getters
+    public int getConnectionId() {
+        return this.iConnectionId;
+    }
+
+    public long getLastActivity() {
+        return this.lLastActivity;
+    }
+
+    public boolean isClosed() {
+        return this.bClosed.get();
+    }
+
+    //setters
+    void setConnectionId(int iConnectionId) {
+        this.iConnectionId = iConnectionId;
+    }
+
+    //take a place in the server's queue for one of this connection's messages, unless it already holds its share
+    boolean admit(int iShare) {
+        if(iPendingMessages.incrementAndGet() > iShare) {
+            iPendingMessages.decrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    //give back the place taken by a message once it has been processed
+    void release() {
+        iPendingMessages.updateAndGet(iPending -> Math.max(0, iPending - 1));
+    }
+
+    //mark the connection as having just been heard from
+    void touch() {
+        this.lLastActivity = System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,93 @@
+package server;
+
+import common.LatencyHistogram;
+import common.Opcode;
+import common.RateCounter;
+
+import java.util.EnumMap;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Command registry class that holds the handler for each opcode the server processes, and counts and times every request it dispatches
+ * Requests arrive already decoded, so dispatching one is a single lookup in a table indexed by its opcode
+ * Handlers are registered before any request is dispatched, after which the table is only ever read
+ * A handler takes the type of request its opcode is decoded as, which is checked when it is registered rather than on every request
+ */
+public class CommandRegistry {
+
+    private EnumMap<Opcode, Command> hmCommands = new EnumMap<>(Opcode.class);
+    private AtomicLong lUnhandled = new AtomicLong();
+
+    /**
+     * Class that holds the handler for one opcode along with the timings and rate of the requests it has handled
+     */
+    private static class Command {
+        private Consumer<Request> cHandler;
+        private LatencyHistogram lhLatency = new LatencyHistogram();
+        private RateCounter rcRate = new RateCounter();
+
+        public Command(Consumer<Request> cHandler) {
+            this.cHandler = cHandler;
+        }
+    }
+
+    //register the handler for an opcode that carries nothing but its header, each opcode can only have one
+    public void register(Opcode opOpcode, Consumer<Request> cHandler) {
+        this.register(opOpcode, Request.class, cHandler);
+    }
+
+    //register the handler for an opcode, taking the type of request the opcode is decoded as, each opcode can only have one
+    public <R extends Request> void register(Opcode opOpcode, Class<R> cType, Consumer<? super R> cHandler) {
+        if(!cType.isAssignableFrom(Request.typeOf(opOpcode))) {
+            throw new IllegalArgumentException("Opcode " + opOpcode + " is decoded as " + Request.typeOf(opOpcode).getSimpleName()
+                    + ", not " + cType.getSimpleName());
+        }
+        if(hmCommands.putIfAbsent(opOpcode, new Command(rRequest -> cHandler.accept(cType.cast(rRequest)))) != null) {
+            throw new IllegalArgumentException("Opcode already registered: " + opOpcode);
+        }
+    }
+
+    //run the handler for a request, timing it, and return whether there was a handler for its opcode
+    //a request with an unknown opcode has no handler
+    public boolean dispatch(Request rRequest) {
+        Command cCommand = hmCommands.get(rRequest.getOpcode());
+        if(cCommand == null) {
+            lUnhandled.incrementAndGet();
+            return false;
+        }
+
+        long lStart = System.nanoTime();
+        try {
+            cCommand.cHandler.accept(rRequest);
+        }
+        finally {
+            cCommand.lhLatency.record((System.nanoTime() - lStart) / 1000);
+            cCommand.rcRate.record();
+        }
+        return true;
+    }
+
+    //the opcodes that have a handler
+    public Set<Opcode> getOpcodes() {
+        return hmCommands.keySet();
+    }
+
+    //the time taken to handle each request with the given opcode, in microseconds, or null if it has no handler
+    public LatencyHistogram getLatency(Opcode opOpcode) {
+        Command cCommand = hmCommands.get(opOpcode);
+        return cCommand == null ? null : cCommand.lhLatency;
+    }
+
+    //how often requests with the given opcode are handled, or null if it has no handler
+    public RateCounter getRate(Opcode opOpcode) {
+        Command cCommand = hmCommands.get(opOpcode);
+        return cCommand == null ? null : cCommand.rcRate;
+    }
+
+    //the number of requests that had no handler, which are answered with an error
+    public long getUnhandled() {
+        return this.lUnhandled.get();
+    }
+}
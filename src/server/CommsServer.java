@@ -1,55 +1,88 @@
 package server;
 
-import java.io.EOFException;
-import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import common.*;
+
+import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.ArrayList;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
 
 /**
  * Comms client for the server
  * Handles all the client connections and can handle multiple messages at once
+ * Connections are either served by a thread each (blocking engine) or by a small set of selector threads (NIO engine)
+ * Live connections are held in a table keyed by their ID, and an ID is never given to another connection, so a late reply
+ * or push for a connection that has gone can never reach a newer one
+ * A connection can also carry many logical sessions, each given its own ID in the table, for programs serving many customers
+ * The server can listen on several endpoints, each with several acceptor threads, so a storm of reconnecting clients is taken quickly
  * Made by Alex Lockwood
  */
 public class CommsServer {
 
-    private ArrayList<CommsClientConn> alClientList;
-    private ServerSocket ssSocket;
-    private LinkedBlockingQueue<Object[]> qMessages;
+    private ConcurrentHashMap<Integer, ClientConnection> hmConnections;
+    private AtomicInteger iNextId;
+    private List<IntConsumer> disconnectListeners;
+    private List<ServerSocket> lServerSockets;
+    private RateCounter rcAccepts;
+    private NioCommsEngine nceEngine;
+    private LinkedBlockingQueue<Request> qMessages;
+    private int iQueueCapacity;
+    private int iConnectionShare;
+    private long lRetryAfter;
+    private AtomicInteger iPendingMessages;
+    private AtomicLong lRejectedMessages;
+    private volatile boolean bDraining;
 
     /**
-     * Class that handles the server's connection to each client
+     * Class that handles the server's connection to each client, using a blocking thread per connection
      */
-    public class CommsClientConn {
+    public class CommsClientConn extends ClientConnection {
         Socket sClientSocket;
-        ObjectInputStream oisInput;
-        ObjectOutputStream oosOutput;
+        DataInputStream disInput;
+        DataOutputStream dosOutput;
+        MessageCodec mcCodec;
+        ArrayBlockingQueue<Object> qOutbound;
+        volatile int iWriting;
+        Thread tWriteMessages;
 
         //constructor
         public CommsClientConn(Socket sClientSocket) throws IOException {
+            super(CommsServer.this);
             this.sClientSocket = sClientSocket;
-            oosOutput = new ObjectOutputStream(sClientSocket.getOutputStream());
+            dosOutput = new DataOutputStream(new BufferedOutputStream(sClientSocket.getOutputStream()));
+            disInput = new DataInputStream(new BufferedInputStream(sClientSocket.getInputStream()));
+            qOutbound = new ArrayBlockingQueue<>(OUTBOUND_CAPACITY);
 
-            //new thread that listens for messages from clients
+            //new thread that agrees the connection's features with the client, then listens for messages from it
             Runnable rReadMessage = () -> {
                 try {
-                    oisInput = new ObjectInputStream(sClientSocket.getInputStream());
-                } catch (IOException e) {
-                    e.printStackTrace();
+                    this.acceptHandshake(Frames.readFrame(disInput));
+                }
+                catch (IOException io) {
+                    io.printStackTrace();
+                    this.close();
+                    return;
                 }
 
                 while(true) {
                     try {
-                        Object[] oMessage = (Object[]) oisInput.readObject();
-                        qMessages.put(oMessage);
-                        synchronized (CommsServer.this) {
-                            CommsServer.this.notify();
-                        }
+                        Object[] oMessage = (Object[]) mcCodec.decode(Frames.readFrame(disInput));
+                        CommsServer.this.receiveMessage(this, oMessage);
                     }
                     catch (EOFException eof) {
+                        this.close();
+                        return;
+                    }
+                    catch (IOException io) {
+                        //a socket closed by the server is expected, anything else is an error
+                        if(!this.isClosed()) io.printStackTrace();
+                        this.close();
                         return;
                     }
                     catch (Exception e) {
@@ -58,26 +91,77 @@ public class CommsServer {
                 }
             };
 
-            Thread tReadMessage = new Thread(rReadMessage);
-            tReadMessage.setDaemon(true);
-            tReadMessage.start();
+            Workers.start("comms-reader", rReadMessage, true);
+        }
 
-            //when the connection closes, close the streams
-            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-                try {
-                    oisInput.close();
-                    oosOutput.close();
-                }
-                catch (IOException io) {
-                    io.printStackTrace();
+        //choose the codec from the features both sides support, then send the client its index
+        private void acceptHandshake(byte[] bHello) throws IOException {
+            int iFlags = Handshake.readHello(bHello) & Handshake.getLocalFlags();
+            this.mcCodec = Handshake.getCodec(iFlags);
+            int iIndex = CommsServer.this.addConnection(this);
+            Frames.writeFrame(dosOutput, Handshake.createWelcome(iFlags, iIndex));
+            dosOutput.flush();
+
+            //new thread that writes the queued messages, everything waiting is written together with one flush
+            Runnable rWriteMessages = () -> {
+                ArrayList<Object> alBatch = new ArrayList<>();
+                while(!this.isClosed()) {
+                    try {
+                        alBatch.add(qOutbound.take());
+                        qOutbound.drainTo(alBatch);
+                        iWriting = alBatch.size();
+                        for(Object oMessage : alBatch) {
+                            this.writeFrame(oMessage);
+                        }
+                        dosOutput.flush();
+                        iWriting = 0;
+                        alBatch.clear();
+                    }
+                    catch (InterruptedException ie) {
+                        return;
+                    }
+                    catch (IOException io) {
+                        if(!this.isClosed()) io.printStackTrace();
+                        this.close();
+                        return;
+                    }
                 }
-            }));
+            };
+
+            tWriteMessages = Workers.start("comms-writer", rWriteMessages, true);
+        }
+
+        //encode a message and write it to the stream, a message that cannot be encoded is skipped
+        private void writeFrame(Object oMessage) throws IOException {
+            byte[] bBody;
+            try {
+                bBody = mcCodec.encode(oMessage);
+            }
+            catch (IOException io) {
+                io.printStackTrace();
+                return;
+            }
+            Frames.writeFrame(dosOutput, bBody);
+        }
+
+        //queue a message for the writer thread
+        @Override
+        protected boolean queueMessage(Object oMessage) {
+            return qOutbound.offer(oMessage);
         }
 
-        //write a message to a specific client
-        public void writeMessage(Object oMessage) {
+        //the messages still in the queue, along with the batch being written
+        @Override
+        protected int getQueuedMessages() {
+            return qOutbound.size() + iWriting;
+        }
+
+        //close the socket, which also closes the streams
+        @Override
+        protected void closeTransport() {
+            if(tWriteMessages != null) tWriteMessages.interrupt();
             try {
-                oosOutput.writeObject(oMessage);
+                sClientSocket.close();
             }
             catch (IOException io) {
                 io.printStackTrace();
@@ -87,56 +171,277 @@ public class CommsServer {
 
     //constructor for the comms server
     public CommsServer() throws IOException {
-        this.alClientList = new ArrayList<>();
-        this.ssSocket = new ServerSocket(60010);
-        this.qMessages = new LinkedBlockingQueue<>();
+        this.hmConnections = new ConcurrentHashMap<>();
+        this.iNextId = new AtomicInteger();
+        this.disconnectListeners = new CopyOnWriteArrayList<>();
+        this.iQueueCapacity = Math.max(1, Settings.getInt(Settings.SERVER_QUEUE_CAPACITY, 4096));
+        this.iConnectionShare = Math.max(1, Settings.getInt(Settings.SERVER_CONNECTION_SHARE, 256));
+        this.lRetryAfter = Settings.getLong(Settings.SERVER_RETRY_AFTER, 50);
+        this.qMessages = new LinkedBlockingQueue<>(iQueueCapacity);
+        this.iPendingMessages = new AtomicInteger();
+        this.lRejectedMessages = new AtomicLong();
+        this.rcAccepts = new RateCounter();
+
+        //choose the engine given at startup, falling back to the blocking engine
+        List<InetSocketAddress> lEndpoints = Endpoints.getServerEndpoints();
+        int iBacklog = Settings.getInt(Settings.SERVER_BACKLOG, 512);
+        int iAcceptors = Math.max(1, Settings.getInt(Settings.SERVER_ACCEPTORS, 2));
+        if(Settings.getString(Settings.COMMS_ENGINE, Settings.ENGINE_BLOCKING).equals(Settings.ENGINE_NIO)) {
+            this.nceEngine = new NioCommsEngine(this, lEndpoints, iBacklog, iAcceptors
+                    , Settings.getInt(Settings.COMMS_IO_THREADS, Runtime.getRuntime().availableProcessors()));
+        }
+        else {
+            this.startBlockingEngine(lEndpoints, iBacklog, iAcceptors);
+        }
+
+        this.startIdleEviction(Settings.getLong(Settings.COMMS_IDLE_TIMEOUT, 30) * 1000);
+    }
+
+    //start a thread that closes any connection not heard from within the timeout, clients send heartbeats to stay connected
+    private void startIdleEviction(long lTimeout) {
+        if(lTimeout <= 0) return;
+
+        ScheduledExecutorService sesEviction = Executors.newSingleThreadScheduledExecutor(rEvict -> {
+            Thread tEvict = new Thread(rEvict, "idle-eviction");
+            tEvict.setDaemon(true);
+            return tEvict;
+        });
+        sesEviction.scheduleWithFixedDelay(() -> {
+            long lCutoff = System.currentTimeMillis() - lTimeout;
+            for(ClientConnection ccConnection : hmConnections.values()) {
+                if(ccConnection.getLastActivity() < lCutoff) {
+                    System.out.println("Closing idle connection " + ccConnection.getConnectionId());
+                    ccConnection.close();
+                }
+            }
+        }, lTimeout, Math.max(1000, lTimeout / 4), TimeUnit.MILLISECONDS);
+    }
+
+    //start the blocking engine, which accepts sockets and gives each one its own reading thread
+    private void startBlockingEngine(List<InetSocketAddress> lEndpoints, int iBacklog, int iAcceptors) throws IOException {
+        this.lServerSockets = new ArrayList<>();
+        for(InetSocketAddress isaEndpoint : lEndpoints) {
+            ServerSocket ssSocket = new ServerSocket();
+            ssSocket.setReuseAddress(true);
+            ssSocket.bind(isaEndpoint, iBacklog);
+            lServerSockets.add(ssSocket);
+
+            //new threads that listen for socket connections, the handshake is done on the connection's own thread
+            Runnable rAcceptSocket = () -> {
+                while(!ssSocket.isClosed()) {
+                    try {
+                        Socket sClientSocket = ssSocket.accept();
+                        this.connectionAccepted();
+                        new CommsClientConn(sClientSocket);
+                    }
+                    catch (IOException io) {
+                        if(!ssSocket.isClosed()) io.printStackTrace();
+                    }
+                }
+            };
+
+            for(int i = 0; i < iAcceptors; i++) {
+                Thread tAcceptSocket = new Thread(rAcceptSocket, "acceptor-" + ssSocket.getLocalPort() + "-" + i);
+                tAcceptSocket.setDaemon(true);
+                tAcceptSocket.start();
+            }
+        }
+    }
+
+    //count a newly accepted socket, before its handshake
+    void connectionAccepted() {
+        rcAccepts.record();
+    }
 
-        //new thread that listens for socket connections and sends their index to them
-        Runnable rAcceptSocket = () -> {
-            while(true) {
+    //the number of sockets accepted since the server started
+    public long getAcceptedConnections() {
+        return rcAccepts.getTotal();
+    }
+
+    //the average number of sockets accepted per second over the last 10 seconds
+    public double getAcceptRate() {
+        return rcAccepts.getRate(10);
+    }
+
+    //the most sockets accepted in any one second of the last minute
+    public long getPeakAcceptRate() {
+        return rcAccepts.getPeakRate();
+    }
+
+    //add a connection that has finished its handshake to the table, giving it the next ID
+    //IDs only wrap around after billions of connections, and even then skip any still in use
+    int addConnection(ClientConnection ccConnection) {
+        int iId;
+        do {
+            iId = iNextId.getAndIncrement() & Integer.MAX_VALUE;
+            ccConnection.setConnectionId(iId);
+        }
+        while(hmConnections.putIfAbsent(iId, ccConnection) != null);
+        return iId;
+    }
+
+    //remove a closed connection from the table, its ID is not given out again
+    void removeConnection(ClientConnection ccConnection) {
+        int iId = ccConnection.getConnectionId();
+        if(iId < 0 || !hmConnections.remove(iId, ccConnection)) return;
+
+        for(IntConsumer disconnectListener : disconnectListeners) {
+            disconnectListener.accept(iId);
+        }
+    }
+
+    //whether the connection with the given ID is still open, a connection that has closed never opens again
+    public boolean isConnected(int iIndex) {
+        return hmConnections.containsKey(iIndex);
+    }
+
+    //add a listener told the ID of every connection that closes, so anything held against that ID can be released
+    public void addDisconnectListener(IntConsumer disconnectListener) {
+        disconnectListeners.add(disconnectListener);
+    }
+
+    //the number of connections currently open
+    public int getConnectionCount() {
+        return hmConnections.size();
+    }
+
+    //decode a message read by either engine and put it onto the queue for the server's dispatcher, heartbeats only keep the connection alive
+    //the header is decoded here once, and the dispatcher and server work from the decoded request from then on
+    //a message is only admitted while the server is below its capacity and the connection is below its share of it,
+    //otherwise the client is told the server is busy and when to try again
+    void receiveMessage(ClientConnection ccConnection, Object[] oMessage) {
+        ccConnection.touch();
+        Request rRequest;
+        try {
+            rRequest = Request.decode(oMessage);
+        }
+        catch (RuntimeException re) {
+            System.out.println("Rejecting message from connection " + ccConnection.getConnectionId() + ": " + re.getMessage());
+            ccConnection.writeMessage(new Object[]{new MessageHeader(Opcode.ERROR), oMessage.length > 1 ? oMessage[1] : null, re.getMessage()});
+            return;
+        }
+        if(rRequest.getOpcode() == Opcode.HEARTBEAT) return;
+
+        //the message is either for the connection itself or one of the logical sessions it carries, never anyone else's
+        ClientConnection ccSession = ccConnection.getSession(rRequest.getConnectionIndex());
+        if(ccSession == null) {
+            System.out.println("Rejecting message from connection " + ccConnection.getConnectionId() + " for another connection");
+            ccConnection.writeMessage(new Object[]{new MessageHeader(Opcode.ERROR), rRequest.getCorrelation(), "Not a connection of this client: " + rRequest.getConnectionIndex()});
+            return;
+        }
+        //an opcode the server does not know is answered with an error, so the client is not left waiting for a reply
+        if(rRequest.getOpcode() == null) {
+            ccSession.writeMessage(new Object[]{new MessageHeader(Opcode.ERROR), rRequest.getCorrelation(), "Unknown opcode: " + rRequest.getOpcodeName()});
+            return;
+        }
+        if(rRequest.getOpcode() == Opcode.OPENSESSION) {
+            this.openSession(ccConnection, oMessage);
+            return;
+        }
+        if(rRequest.getOpcode() == Opcode.CLOSESESSION) {
+            ccSession.writeMessage(new Object[]{new MessageHeader(Opcode.REPLY), oMessage[1], ccSession != ccConnection});
+            if(ccSession != ccConnection) ccSession.close();
+            return;
+        }
+
+        //while the server is shutting down, new requests are turned away as if it were busy
+        if(!bDraining && ccSession.admit(iConnectionShare)) {
+            if(iPendingMessages.incrementAndGet() <= iQueueCapacity && qMessages.offer(rRequest)) return;
+            iPendingMessages.decrementAndGet();
+            ccSession.release();
+        }
+
+        lRejectedMessages.incrementAndGet();
+        ccSession.writeMessage(new Object[]{new MessageHeader(Opcode.BUSY), oMessage[1], lRetryAfter});
+    }
+
+    //open a logical session over a connection, replying with the session's ID for the client to use in its messages
+    private void openSession(ClientConnection ccCarrier, Object[] oMessage) {
+        LogicalConnection lcSession = new LogicalConnection(this, ccCarrier);
+        this.addConnection(lcSession);
+        ccCarrier.addSession(lcSession);
+        ccCarrier.writeMessage(new Object[]{new MessageHeader(Opcode.REPLY), oMessage[1], lcSession.getConnectionId()});
+    }
+
+    //called once a message taken from the queue has been processed, freeing its place for another
+    void messageProcessed(int iIndex) {
+        iPendingMessages.decrementAndGet();
+        ClientConnection ccConnection = hmConnections.get(iIndex);
+        if(ccConnection != null) {
+            ccConnection.release();
+        }
+    }
+
+    //the number of messages turned away because the server was busy
+    public long getRejectedMessages() {
+        return this.lRejectedMessages.get();
+    }
+
+    //stop accepting new connections and new requests, the requests already admitted are still processed
+    public void stopAccepting() {
+        this.bDraining = true;
+        if(nceEngine != null) {
+            nceEngine.stopAccepting();
+        }
+        else {
+            for(ServerSocket ssSocket : lServerSockets) {
                 try {
-                    Socket sClientSocket = ssSocket.accept();
-                    CommsClientConn ccc = new CommsClientConn(sClientSocket);
-                    alClientList.add(ccc);
-                    CommsServer.this.sendMessage(alClientList.indexOf(ccc), "CONNECTED:" + alClientList.indexOf(ccc));
+                    ssSocket.close();
                 }
                 catch (IOException io) {
                     io.printStackTrace();
                 }
             }
-        };
-
-        Thread tAcceptSocket = new Thread(rAcceptSocket);
-        tAcceptSocket.setDaemon(true);
-        tAcceptSocket.start();
+        }
     }
 
-    public LinkedBlockingQueue<Object[]> getBlockingQueue() {
-        return this.qMessages;
+    //wait until every admitted request has been processed or the deadline passes, returning how many are left
+    public int awaitProcessed(long lDeadline) throws InterruptedException {
+        while(iPendingMessages.get() > 0 && System.currentTimeMillis() < lDeadline) {
+            Thread.sleep(10);
+        }
+        return Math.max(0, iPendingMessages.get());
     }
 
-    //get a message from the queue
-    public Object[] getMessage() {
-        try {
-            return this.getBlockingQueue().take();
+    //wait until every reply has been written to its client or the deadline passes, returning how many are left
+    public int awaitFlushed(long lDeadline) throws InterruptedException {
+        while(true) {
+            int iQueued = 0;
+            for(ClientConnection ccConnection : hmConnections.values()) {
+                iQueued += ccConnection.getQueuedMessages();
+            }
+            if(iQueued == 0 || System.currentTimeMillis() >= lDeadline) return iQueued;
+            Thread.sleep(10);
         }
-        catch (InterruptedException ie) {
-            Thread.currentThread().interrupt();
+    }
+
+    //close every connection
+    public void close() {
+        for(ClientConnection ccConnection : hmConnections.values()) {
+            ccConnection.close();
         }
+    }
 
-        return null;
+    public LinkedBlockingQueue<Request> getBlockingQueue() {
+        return this.qMessages;
     }
 
-    //send a message to a specific client, based upon their index in the list
+    //send a message to a specific client, based upon their connection ID, dropping it if the client has gone
     public void sendMessage(int iIndex, Object oMessage) {
-        synchronized (this.alClientList.get(iIndex)) {
-            try {
-                this.alClientList.get(iIndex).writeMessage(oMessage);
-                this.alClientList.get(iIndex).notifyAll();
-            } catch (IndexOutOfBoundsException e) {
-                e.printStackTrace();
-            }
+        ClientConnection ccConnection = hmConnections.get(iIndex);
+        if(ccConnection != null) {
+            ccConnection.writeMessage(oMessage);
         }
     }
 
+    //send the reply to a request back to a specific client, tagged with the correlation ID of the request
+    public void sendReply(int iIndex, Object oCorrelationId, Object oPayload) {
+        this.sendMessage(iIndex, new Object[]{new MessageHeader(Opcode.REPLY), oCorrelationId, oPayload});
+    }
+
+    //tell a specific client that a request could not be processed, tagged with the correlation ID of the request
+    public void sendError(int iIndex, Object oCorrelationId, String szError) {
+        this.sendMessage(iIndex, new Object[]{new MessageHeader(Opcode.ERROR), oCorrelationId, szError});
+    }
+
 }
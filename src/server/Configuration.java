@@ -21,10 +21,12 @@ public class Configuration {
     private StockManagement smStock;
     private List<Supplier> supplierList;
     private List<User> userList;
+    private Map<String, User> userMap;
     private List<Postcode> postcodeList;
     private List<Staff> staffList;
     private List<Drone> droneList;
     private List<Order> orderList;
+    private List<Order> archivedOrderList;
     private Map<Dish, Integer> dishStockMap;
     private Map<Ingredient, Integer> ingredientStockMap;
 
@@ -36,10 +38,12 @@ public class Configuration {
          smStock = new StockManagement();
          supplierList = new ArrayList<>();
          userList = new ArrayList<>();
+         userMap = new HashMap<>();
          postcodeList = new ArrayList<>();
          staffList = new ArrayList<>();
          droneList = new ArrayList<>();
          orderList = new ArrayList<>();
+         archivedOrderList = new ArrayList<>();
          dishStockMap = new HashMap<>();
          ingredientStockMap = new HashMap<>();
     }
@@ -92,8 +96,7 @@ public class Configuration {
     public void processIngredient(String[] szSplit) {
         for(Supplier s : this.getSupplierList()) {
             if(s.getName().equals(szSplit[3])) {
-                this.getSmStock().getIngredientsList().add(new Ingredient(szSplit[1], szSplit[2], s));
-                this.getSmStock().addToList(this.getSmStock().getIngredientsList().get(this.getSmStock().getIngredientsList().size() - 1));
+                this.getSmStock().addToList(new Ingredient(szSplit[1], szSplit[2], s));
                 this.getSmStock().setRestockThreshold(this.getSmStock().getIngredientsList().get(this.getSmStock().getIngredientsList().size() - 1)
                         , Integer.parseInt(szSplit[4]));
                 this.getSmStock().setRestockAmount(this.getSmStock().getIngredientsList().get(this.getSmStock().getIngredientsList().size() - 1)
@@ -148,7 +151,10 @@ public class Configuration {
     public void processUser(String[] szSplit) {
         for(Postcode p : this.getPostcodeList()) {
             if(p.getPostcode().matches(szSplit[4])) {
-                this.getUserList().add(new User(szSplit[1], szSplit[2], szSplit[3], p));
+                User uNewUser = new User(szSplit[1], szSplit[2], szSplit[3], p);
+                this.getUserList().add(uNewUser);
+                //if a name is given twice, the first user with it is the one found by name
+                this.getUserMap().putIfAbsent(uNewUser.getName(), uNewUser);
                 return;
             }
         }
@@ -169,11 +175,9 @@ public class Configuration {
     //process an order in the configuration file
     public void processOrder(String[] szSplit) {
         Order newOrder = null;
-        for(User u : this.getUserList()) {
-            if(u.getName().equals(szSplit[1])) {
-                newOrder = new Order(u);
-                break;
-            }
+        User uCustomer = this.getUserMap().get(szSplit[1]);
+        if(uCustomer != null) {
+            newOrder = new Order(uCustomer);
         }
 
         String[] szOrder = szSplit[2].split(",");
@@ -188,15 +192,8 @@ public class Configuration {
                 mMatcher = pIngredient.matcher(szIngredient);
                 if(mMatcher.find()) {
                     String szName = mMatcher.group(0).substring(2);
-                    boolean bActualIng = false;
-                    for(Dish d : this.getSmStock().getDishesList()) {
-                        if(d.getName().equals(szName)) {
-                            dOrderComponent = d;
-                            bActualIng = true;
-                        }
-                    }
-
-                    if(!bActualIng) return;
+                    dOrderComponent = this.getSmStock().getDish(szName);
+                    if(dOrderComponent == null) return;
                 }
 
                 //if a quantity and dish is found, add to the order
@@ -208,6 +205,17 @@ public class Configuration {
             }
         }
 
+        //orders saved with their ID, time placed and status are reloaded as they were, into the live or archived orders
+        if(szSplit.length >= 7) {
+            newOrder.setId(Long.parseLong(szSplit[3]));
+            newOrder.setPlacedAt(Long.parseLong(szSplit[4]));
+            newOrder.setStatus(szSplit[5]);
+            newOrder.setOrderCompletion(Order.STATUS_DELIVERED.equals(szSplit[5]));
+            if("ARCHIVED".equals(szSplit[6])) {
+                this.getArchivedOrderList().add(newOrder);
+                return;
+            }
+        }
         this.getOrderList().add(newOrder);
     }
 
@@ -220,11 +228,9 @@ public class Configuration {
             }
         }
 
-        for(Dish d : this.getSmStock().getDishesList()) {
-            if(d.getName().equals(szSplit[1])) {
-                this.dishStockMap.put(d, Integer.parseInt(szSplit[2]));
-                return;
-            }
+        Dish d = this.getSmStock().getDish(szSplit[1]);
+        if(d != null) {
+            this.dishStockMap.put(d, Integer.parseInt(szSplit[2]));
         }
     }
 
@@ -241,6 +247,11 @@ public class Configuration {
         return userList;
     }
 
+    //the users keyed by their name
+    public Map<String, User> getUserMap() {
+        return userMap;
+    }
+
     public List<Postcode> getPostcodeList() {
         return postcodeList;
     }
@@ -257,6 +268,11 @@ public class Configuration {
         return orderList;
     }
 
+    //orders that had been archived when they were saved
+    public List<Order> getArchivedOrderList() {
+        return archivedOrderList;
+    }
+
     public Map<Dish, Integer> getDishStockMap() {
         return dishStockMap;
     }
@@ -10,6 +10,8 @@ public class Drone extends Model implements Runnable {
     private String szStatus;
     private StockManagement smStock;
     private Number iSpeed;
+    private volatile boolean bStopping;
+    private volatile boolean bBusy;
 
     public Drone(StockManagement smStock, Number iSpeed) {
         this.setStockManagement(smStock);
@@ -48,58 +50,78 @@ public class Drone extends Model implements Runnable {
         this.iSpeed = iSpeed;
     }
 
+    //ask the drone to stop once it has finished the flight it is on
+    public void stop() {
+        this.bStopping = true;
+    }
+
+    //whether the drone is part way through a flight
+    public boolean isBusy() {
+        return this.bBusy;
+    }
+
     @Override
     public void run() {
-        while(true) {
-            //if both queues empty then wait until notified
-            if(this.getStockManagement().getIngredientsQueue().isEmpty()
-                    && this.getStockManagement().getOrderQueue().isEmpty()) {
-                synchronized (this.getStockManagement().getIngredientsList()) {
-                    try {
-                        this.getStockManagement().getIngredientsList().wait();
-                    }
-                    catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                    }
-                }
-            }
+        while(!bStopping) {
+            try {
+                //wait until there is an order to deliver or an ingredient to collect
+                this.getStockManagement().awaitDeliveries();
 
-            while(!this.getStockManagement().getIngredientsQueue().isEmpty()
-                    || !this.getStockManagement().getOrderQueue().isEmpty()) {
-                if(this.getStockManagement().getOrderQueue().size() > 0) {
-                    Order oOrder = null;
-                    System.out.println("Order Drone Test");
-                    synchronized (this.getStockManagement().getOrderQueue()) {
-                        try {
-                            oOrder = this.getStockManagement().getOrderQueue().take();
-                            oOrder.setStatus("Being Delivered");
-                            this.setStatus("Delivering Order");
-                            this.getStockManagement().getOrderQueue().wait((long)((oOrder.getCustomer().getPostcode().getDistance().doubleValue() / this.getSpeed().doubleValue()) * 60000));
-                        }
-                        catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                        }
-                        oOrder.setOrderCompletion(true);
-                        oOrder.setStatus("Delivered");
-                        this.setStatus("Idle");
-                    }
+                bBusy = true;
+                //a cancelled order is left on the queue rather than searched for, and is skipped here instead
+                Order oOrder = this.getStockManagement().getOrderQueue().poll();
+                if(oOrder != null && oOrder.dispatch()) {
+                    this.deliverOrder(oOrder);
                 }
-                if(this.getStockManagement().getIngredientsQueue().size() > 0){
-                    Ingredient inIngredient = null;
-                    synchronized (this.getStockManagement().getIngredientsQueue()) {
-                        try {
-                            inIngredient = this.getStockManagement().getIngredientsQueue().take();
-                            this.setStatus("Getting Ingredients: " + inIngredient.getName());
-                            this.getStockManagement().getIngredientsQueue().wait((long)((inIngredient.getSupplier().getDistance().doubleValue() / this.getSpeed().doubleValue()) * 60000));
-                        }
-                        catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                        }
-                    }
-                    this.getStockManagement().addToStock(inIngredient);
-                    this.setStatus("Idle");
+
+                Ingredient inIngredient = bStopping ? null : this.getStockManagement().getIngredientsQueue().poll();
+                if(inIngredient != null) {
+                    this.collectIngredient(inIngredient);
                 }
             }
+            catch (InterruptedException ie) {
+                this.setStatus("Idle");
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally {
+                bBusy = false;
+            }
         }
     }
+
+    //fly an order to its customer, putting it back on the queue if the drone is stopped on the way
+    private void deliverOrder(Order oOrder) throws InterruptedException {
+        this.setStatus("Delivering Order");
+        try {
+            Thread.sleep(this.getFlightTime(oOrder.getCustomer().getPostcode().getDistance()));
+        }
+        catch (InterruptedException ie) {
+            oOrder.setStatus(Order.STATUS_WAITING);
+            this.getStockManagement().addToOrderQueue(oOrder);
+            throw ie;
+        }
+        oOrder.setOrderCompletion(true);
+        oOrder.setStatus(Order.STATUS_DELIVERED);
+        this.setStatus("Idle");
+    }
+
+    //fly to an ingredient's supplier and bring it back to restock, putting it back on the queue if the drone is stopped on the way
+    private void collectIngredient(Ingredient inIngredient) throws InterruptedException {
+        this.setStatus("Getting Ingredients: " + inIngredient.getName());
+        try {
+            Thread.sleep(this.getFlightTime(inIngredient.getSupplier().getDistance()));
+        }
+        catch (InterruptedException ie) {
+            this.getStockManagement().addToIngredientsQueue(inIngredient);
+            throw ie;
+        }
+        this.getStockManagement().addToStock(inIngredient);
+        this.setStatus("Idle");
+    }
+
+    //how long the drone takes to fly a distance, in milliseconds
+    private long getFlightTime(Number iDistance) {
+        return (long) ((iDistance.doubleValue() / this.getSpeed().doubleValue()) * 60000);
+    }
 }
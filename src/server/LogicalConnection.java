@@ -0,0 +1,56 @@
+package server;
+
+import common.MessageHeader;
+import common.Opcode;
+
+import java.util.Arrays;
+
+/**
+ * Logical connection class for one of many customer sessions carried over a single client connection, such as a kiosk's
+ * It has its own ID in the comms server's table, so messages from it are ordered, admitted and replied to on their own,
+ * while everything it sends goes out over the connection carrying it
+ * Replies are routed by their correlation ID, and anything else is wrapped with the session's ID so the client can route it
+ */
+public class LogicalConnection extends ClientConnection {
+
+    private ClientConnection ccCarrier;
+
+    //constructor
+    public LogicalConnection(CommsServer csServer, ClientConnection ccCarrier) {
+        super(csServer);
+        this.ccCarrier = ccCarrier;
+    }
+
+    //the connection this session is carried over
+    public ClientConnection getCarrier() {
+        return this.ccCarrier;
+    }
+
+    //a session lives as long as it is open and its carrier is heard from
+    @Override
+    public long getLastActivity() {
+        return ccCarrier.getLastActivity();
+    }
+
+    @Override
+    protected boolean queueMessage(Object oMessage) {
+        if(isReply(oMessage)) {
+            ccCarrier.writeMessage(oMessage);
+        }
+        else {
+            ccCarrier.writeMessage(new Object[]{new MessageHeader(Opcode.SESSION, this.getConnectionId()), 0L, Arrays.asList((Object[]) oMessage)});
+        }
+        return true;
+    }
+
+    //everything a session sends is queued on its carrier
+    @Override
+    protected int getQueuedMessages() {
+        return 0;
+    }
+
+    @Override
+    protected void closeTransport() {
+        ccCarrier.removeSession(this);
+    }
+}
@@ -0,0 +1,115 @@
+package server;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Message dispatcher that takes messages off the comms server's queue and processes them on a pool of worker threads
+ * Messages from the same connection are processed one at a time in the order they arrived, while different connections run in parallel
+ */
+public class MessageDispatcher {
+
+    //how many messages a connection may process before giving its worker to another connection
+    private static final int BATCH_SIZE = 16;
+
+    private CommsServer csComms;
+    private Consumer<Request> cProcessor;
+    private ExecutorService esWorkers;
+    private ConcurrentHashMap<Integer, SessionQueue> hmSessions;
+    private Thread tDispatch;
+
+    /**
+     * Class that holds the messages waiting to be processed for one connection
+     * It is only ever run by one worker at a time, which keeps that connection's messages in order
+     */
+    private class SessionQueue implements Runnable {
+        private int iKey;
+        private ConcurrentLinkedQueue<Request> qMessages = new ConcurrentLinkedQueue<>();
+        private boolean bScheduled;
+
+        //constructor
+        public SessionQueue(int iKey) {
+            this.iKey = iKey;
+        }
+
+        @Override
+        public void run() {
+            for(int i = 0; i < BATCH_SIZE; i++) {
+                Request rRequest = qMessages.poll();
+                if(rRequest == null) break;
+                try {
+                    cProcessor.accept(rRequest);
+                }
+                catch (Exception e) {
+                    e.printStackTrace();
+                }
+                finally {
+                    csComms.messageProcessed(iKey);
+                }
+            }
+
+            //either hand the worker back, or run again if more messages arrived for this connection
+            hmSessions.compute(iKey, (iSessionKey, sqSession) -> {
+                if(qMessages.isEmpty()) {
+                    bScheduled = false;
+                    return null;
+                }
+                esWorkers.execute(this);
+                return this;
+            });
+        }
+    }
+
+    //constructor
+    public MessageDispatcher(CommsServer csComms, Consumer<Request> cProcessor, int iWorkers) {
+        this.csComms = csComms;
+        this.cProcessor = cProcessor;
+        this.esWorkers = Executors.newFixedThreadPool(Math.max(1, iWorkers));
+        this.hmSessions = new ConcurrentHashMap<>();
+    }
+
+    //start the thread that drains the comms server's queue into the workers
+    public void start() {
+        Runnable rDispatch = () -> {
+            while(true) {
+                try {
+                    this.dispatch(csComms.getBlockingQueue().take());
+                }
+                catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        };
+
+        this.tDispatch = new Thread(rDispatch, "message-dispatcher");
+        tDispatch.setDaemon(true);
+        tDispatch.start();
+    }
+
+    //stop taking messages and let the workers finish the ones they have, waiting no later than the deadline
+    public boolean stop(long lDeadline) throws InterruptedException {
+        if(tDispatch != null) tDispatch.interrupt();
+        esWorkers.shutdown();
+        return esWorkers.awaitTermination(Math.max(0, lDeadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+    }
+
+    //queue a request behind the others from its connection, scheduling the connection if it is not already running
+    public void dispatch(Request rRequest) {
+        hmSessions.compute(rRequest.getConnectionIndex(), (iKey, sqSession) -> {
+            if(sqSession == null) {
+                sqSession = new SessionQueue(iKey);
+            }
+            sqSession.qMessages.add(rRequest);
+            if(!sqSession.bScheduled) {
+                sqSession.bScheduled = true;
+                esWorkers.execute(sqSession);
+            }
+            return sqSession;
+        });
+    }
+}
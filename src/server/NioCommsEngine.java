@@ -0,0 +1,324 @@
+package server;
+
+import common.Frames;
+import common.Handshake;
+import common.MessageCodec;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * NIO comms engine for the server
+ * Serves every client connection from a small fixed set of selector threads instead of a thread per connection
+ * Each selector thread reads the frames from its connections, decodes them and places them on the comms server's queue
+ */
+public class NioCommsEngine {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    private static final int MAX_GATHER = 64;
+
+    private CommsServer csServer;
+    private List<ServerSocketChannel> lServerChannels = new ArrayList<>();
+    private IoLoop[] ioLoops;
+    private AtomicInteger iNextLoop = new AtomicInteger();
+
+    /**
+     * Class that runs a single selector, serving every connection registered to it
+     */
+    private class IoLoop implements Runnable {
+        private Selector selector;
+        private ConcurrentLinkedQueue<NioClientConn> qRegistrations = new ConcurrentLinkedQueue<>();
+        private ConcurrentLinkedQueue<NioClientConn> qFlushes = new ConcurrentLinkedQueue<>();
+
+        //constructor
+        public IoLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        //hand a new connection to this loop, it is registered on the loop's own thread
+        public void register(NioClientConn nccConnection) {
+            qRegistrations.add(nccConnection);
+            selector.wakeup();
+        }
+
+        //ask the loop to write out the pending messages of a connection
+        public void requestFlush(NioClientConn nccConnection) {
+            qFlushes.add(nccConnection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while(true) {
+                try {
+                    selector.select();
+
+                    NioClientConn nccConnection;
+                    while((nccConnection = qRegistrations.poll()) != null) {
+                        NioClientConn nccNew = nccConnection;
+                        this.serve(nccNew, () -> nccNew.register(selector));
+                    }
+                    while((nccConnection = qFlushes.poll()) != null) {
+                        this.serve(nccConnection, nccConnection::flush);
+                    }
+
+                    Iterator<SelectionKey> itKeys = selector.selectedKeys().iterator();
+                    while(itKeys.hasNext()) {
+                        SelectionKey skKey = itKeys.next();
+                        itKeys.remove();
+                        NioClientConn nccReady = (NioClientConn) skKey.attachment();
+
+                        this.serve(nccReady, () -> {
+                            if(skKey.isValid() && skKey.isReadable()) {
+                                nccReady.read();
+                            }
+                            if(skKey.isValid() && skKey.isWritable()) {
+                                nccReady.flush();
+                            }
+                        });
+                    }
+                }
+                catch (IOException io) {
+                    io.printStackTrace();
+                }
+            }
+        }
+
+        //run some work for a connection, anything it throws closes that connection alone
+        //so a client sending a bad frame never stops the loop serving every other connection on it
+        private void serve(NioClientConn nccConnection, Runnable rWork) {
+            try {
+                rWork.run();
+            }
+            catch (RuntimeException re) {
+                System.out.println("Closing connection " + nccConnection.getConnectionId() + " after an error: " + re);
+                nccConnection.close();
+            }
+        }
+    }
+
+    /**
+     * Class that handles the server's connection to each client when using the NIO engine
+     */
+    public class NioClientConn extends ClientConnection {
+        private SocketChannel scChannel;
+        private IoLoop ilLoop;
+        private SelectionKey skKey;
+        private ByteBuffer bbRead;
+        private MessageCodec mcCodec;
+        private ConcurrentLinkedQueue<ByteBuffer> qOutbound = new ConcurrentLinkedQueue<>();
+        private AtomicInteger iQueuedFrames = new AtomicInteger();
+        private ByteBuffer[] bbGather = new ByteBuffer[MAX_GATHER];
+
+        //constructor
+        public NioClientConn(SocketChannel scChannel, IoLoop ilLoop) {
+            super(NioCommsEngine.this.csServer);
+            this.scChannel = scChannel;
+            this.ilLoop = ilLoop;
+            this.bbRead = ByteBuffer.allocate(READ_BUFFER_SIZE);
+        }
+
+        //register the channel for reading, only called on the loop's thread
+        private void register(Selector selector) {
+            try {
+                this.skKey = scChannel.register(selector, SelectionKey.OP_READ, this);
+                this.flush();
+            }
+            catch (ClosedChannelException cce) {
+                this.close();
+            }
+        }
+
+        //read what is available on the channel and decode every complete frame
+        private void read() {
+            try {
+                if(scChannel.read(bbRead) < 0) {
+                    this.close();
+                    return;
+                }
+
+                bbRead.flip();
+                while(bbRead.remaining() >= Frames.HEADER_SIZE) {
+                    int iLength = bbRead.getInt(bbRead.position());
+                    Frames.checkLength(iLength);
+
+                    //if the frame is not all here yet, wait for the rest of it
+                    if(bbRead.remaining() < Frames.HEADER_SIZE + iLength) {
+                        if(bbRead.capacity() < Frames.HEADER_SIZE + iLength) {
+                            ByteBuffer bbLarger = ByteBuffer.allocate(Frames.HEADER_SIZE + iLength);
+                            bbLarger.put(bbRead);
+                            bbLarger.flip();
+                            bbRead = bbLarger;
+                        }
+                        break;
+                    }
+
+                    bbRead.getInt();
+                    byte[] bBody = new byte[iLength];
+                    bbRead.get(bBody);
+                    //the first frame is always the client's hello
+                    if(mcCodec == null) {
+                        this.acceptHandshake(bBody);
+                    }
+                    else csServer.receiveMessage(this, (Object[]) mcCodec.decode(bBody));
+                }
+                bbRead.compact();
+            }
+            catch (IOException io) {
+                if(!this.isClosed()) io.printStackTrace();
+                this.close();
+            }
+        }
+
+        //choose the codec from the features both sides support, then send the client its index
+        private void acceptHandshake(byte[] bHello) throws IOException {
+            int iFlags = Handshake.readHello(bHello) & Handshake.getLocalFlags();
+            this.mcCodec = Handshake.getCodec(iFlags);
+            this.queueFrame(Handshake.createWelcome(iFlags, csServer.addConnection(this)));
+        }
+
+        //write as many pending frames as the socket will take, gathering several frames into each write
+        //only called on the loop's thread
+        private void flush() {
+            if(skKey == null || !skKey.isValid()) return;
+
+            try {
+                while(!qOutbound.isEmpty()) {
+                    int iGathered = 0;
+                    for(ByteBuffer bbFrame : qOutbound) {
+                        if(iGathered == MAX_GATHER) break;
+                        bbGather[iGathered++] = bbFrame;
+                    }
+                    scChannel.write(bbGather, 0, iGathered);
+
+                    //remove the frames that were written in full
+                    for(int i = 0; i < iGathered && !bbGather[i].hasRemaining(); i++) {
+                        qOutbound.poll();
+                        iQueuedFrames.decrementAndGet();
+                    }
+                    boolean bSocketFull = bbGather[iGathered - 1].hasRemaining();
+                    Arrays.fill(bbGather, 0, iGathered, null);
+
+                    //if the socket is full, wait until it is writable again
+                    if(bSocketFull) {
+                        skKey.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                }
+                skKey.interestOps(SelectionKey.OP_READ);
+            }
+            catch (IOException io) {
+                if(!this.isClosed()) io.printStackTrace();
+                this.close();
+            }
+        }
+
+        //encode a message into a frame and queue it for the loop to write, unless the client is too far behind
+        @Override
+        protected boolean queueMessage(Object oMessage) {
+            if(iQueuedFrames.get() >= OUTBOUND_CAPACITY) return false;
+
+            try {
+                this.queueFrame(mcCodec.encode(oMessage));
+            }
+            catch (IOException io) {
+                io.printStackTrace();
+            }
+            return true;
+        }
+
+        //queue the body of a frame for the loop to write
+        private void queueFrame(byte[] bBody) {
+            ByteBuffer bbFrame = ByteBuffer.allocate(Frames.HEADER_SIZE + bBody.length);
+            bbFrame.putInt(bBody.length);
+            bbFrame.put(bBody);
+            bbFrame.flip();
+
+            iQueuedFrames.incrementAndGet();
+            qOutbound.add(bbFrame);
+            ilLoop.requestFlush(this);
+        }
+
+        @Override
+        protected int getQueuedMessages() {
+            return iQueuedFrames.get();
+        }
+
+        @Override
+        protected void closeTransport() {
+            try {
+                if(skKey != null) skKey.cancel();
+                scChannel.close();
+            }
+            catch (IOException io) {
+                io.printStackTrace();
+            }
+        }
+    }
+
+    //close every listening channel, connections already accepted carry on
+    public void stopAccepting() {
+        for(ServerSocketChannel sscChannel : lServerChannels) {
+            try {
+                sscChannel.close();
+            }
+            catch (IOException io) {
+                io.printStackTrace();
+            }
+        }
+    }
+
+    //constructor, binds every endpoint and starts the acceptor and selector threads
+    public NioCommsEngine(CommsServer csServer, List<InetSocketAddress> lEndpoints, int iBacklog, int iAcceptors, int iIoThreads)
+            throws IOException {
+        this.csServer = csServer;
+
+        this.ioLoops = new IoLoop[Math.max(1, iIoThreads)];
+        for(int i = 0; i < ioLoops.length; i++) {
+            ioLoops[i] = new IoLoop();
+            Thread tLoop = new Thread(ioLoops[i], "nio-loop-" + i);
+            tLoop.setDaemon(true);
+            tLoop.start();
+        }
+
+        for(InetSocketAddress isaEndpoint : lEndpoints) {
+            ServerSocketChannel sscChannel = ServerSocketChannel.open();
+            sscChannel.socket().setReuseAddress(true);
+            sscChannel.bind(isaEndpoint, iBacklog);
+            lServerChannels.add(sscChannel);
+
+            //new threads that accept connections and hand them to the selector threads in turn
+            Runnable rAcceptSocket = () -> {
+                while(sscChannel.isOpen()) {
+                    try {
+                        SocketChannel scClient = sscChannel.accept();
+                        csServer.connectionAccepted();
+                        scClient.configureBlocking(false);
+                        scClient.socket().setTcpNoDelay(true);
+
+                        IoLoop ilLoop = ioLoops[Math.floorMod(iNextLoop.getAndIncrement(), ioLoops.length)];
+                        NioClientConn nccConnection = new NioClientConn(scClient, ilLoop);
+                        ilLoop.register(nccConnection);
+                    }
+                    catch (IOException io) {
+                        if(sscChannel.isOpen()) io.printStackTrace();
+                    }
+                }
+            };
+
+            for(int i = 0; i < iAcceptors; i++) {
+                Thread tAcceptSocket = new Thread(rAcceptSocket, "nio-acceptor-" + isaEndpoint.getPort() + "-" + i);
+                tAcceptSocket.setDaemon(true);
+                tAcceptSocket.start();
+            }
+        }
+    }
+}
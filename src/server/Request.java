@@ -0,0 +1,225 @@
+package server;
+
+import common.Dish;
+import common.MessageHeader;
+import common.Opcode;
+import common.OrderQuery;
+import common.Postcode;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiFunction;
+
+/**
+ * Request class for a message from a client, decoded once when it arrives into its opcode, connection index and header fields
+ * Everything after the header is processed from this, so the header never needs to be split again
+ * Each opcode that carries more than its header is decoded into its own type of request, such as a login or a checkout,
+ * which only has the accessors for what that opcode carries, so a handler cannot read a field the request does not have
+ */
+public class Request {
+
+    //the type each opcode's requests are decoded as, along with how to make one, an opcode not here is decoded as a plain request
+    private static final EnumMap<Opcode, Type<?>> hmTypes = new EnumMap<>(Opcode.class);
+
+    static {
+        hmTypes.put(Opcode.REGISTER, new Type<>(Registration.class, Registration::new));
+        hmTypes.put(Opcode.LOGIN, new Type<>(Login.class, Login::new));
+        hmTypes.put(Opcode.GETORDERS, new Type<>(UserRequest.class, UserRequest::new));
+        hmTypes.put(Opcode.SUBSCRIBE, new Type<>(UserRequest.class, UserRequest::new));
+        hmTypes.put(Opcode.CHECKOUT, new Type<>(Checkout.class, Checkout::new));
+        hmTypes.put(Opcode.CANCELORDER, new Type<>(CancelOrder.class, CancelOrder::new));
+        hmTypes.put(Opcode.QUERYORDERS, new Type<>(QueryOrders.class, QueryOrders::new));
+        hmTypes.put(Opcode.SYNCDISHES, new Type<>(SyncCatalog.class, SyncCatalog::new));
+        hmTypes.put(Opcode.SYNCPOSTCODES, new Type<>(SyncCatalog.class, SyncCatalog::new));
+    }
+
+    /**
+     * Class that holds the type of request an opcode is decoded as and how to make one
+     */
+    private static class Type<R extends Request> {
+        private Class<R> cType;
+        private BiFunction<MessageHeader, Object[], R> fCreate;
+
+        public Type(Class<R> cType, BiFunction<MessageHeader, Object[], R> fCreate) {
+            this.cType = cType;
+            this.fCreate = fCreate;
+        }
+    }
+
+    private MessageHeader mhHeader;
+    private Object[] oMessage;
+
+    //constructor
+    private Request(MessageHeader mhHeader, Object[] oMessage) {
+        this.mhHeader = mhHeader;
+        this.oMessage = oMessage;
+    }
+
+    //decode a message, whose header is either a message header, as every sender sends, or a string of the form "OPCODE:index:field:field..."
+    //a message with no header at all throws an IllegalArgumentException, while one with an unknown opcode is decoded with a null opcode
+    public static Request decode(Object[] oMessage) {
+        MessageHeader mhHeader = oMessage.length == 0 ? null : MessageHeader.of(oMessage[0]);
+        if(mhHeader == null) {
+            throw new IllegalArgumentException("Message has no header");
+        }
+        Type<?> tType = mhHeader.getOpcode() == null ? null : hmTypes.get(mhHeader.getOpcode());
+        return tType == null ? new Request(mhHeader, oMessage) : tType.fCreate.apply(mhHeader, oMessage);
+    }
+
+    //the type of request messages with the given opcode are decoded as
+    public static Class<? extends Request> typeOf(Opcode opOpcode) {
+        Type<?> tType = hmTypes.get(opOpcode);
+        return tType == null ? Request.class : tType.cType;
+    }
+
+    //getters
+    //the opcode, or null if it is not one the server knows
+    public Opcode getOpcode() {
+        return this.mhHeader.getOpcode();
+    }
+
+    //the opcode as the client sent it, even if it is unknown
+    public String getOpcodeName() {
+        return this.mhHeader.getOpcodeName();
+    }
+
+    public int getConnectionIndex() {
+        return this.mhHeader.getConnectionIndex();
+    }
+
+    //the correlation ID the reply is sent back with, or null if the message has none
+    public Object getCorrelation() {
+        return oMessage.length > 1 ? oMessage[1] : null;
+    }
+
+    //a field of the header after the connection index, or null if the header does not have it
+    protected String getField(int iField) {
+        return this.mhHeader.getField(iField);
+    }
+
+    //the payload after the header and correlation ID if it is of the given type, or null if it is missing or of another type
+    protected <T> T getPayload(Class<T> cType) {
+        Object oPayload = oMessage.length > 2 ? oMessage[2] : null;
+        return cType.isInstance(oPayload) ? cType.cast(oPayload) : null;
+    }
+
+    /**
+     * A login, carrying the user name and password in its header
+     */
+    public static class Login extends Request {
+
+        private Login(MessageHeader mhHeader, Object[] oMessage) {
+            super(mhHeader, oMessage);
+        }
+
+        public String getUserName() {
+            return this.getField(0);
+        }
+
+        public String getPassword() {
+            return this.getField(1);
+        }
+    }
+
+    /**
+     * A registration, carrying the location after the user name and password, and the postcode as its payload
+     */
+    public static class Registration extends Login {
+
+        private Registration(MessageHeader mhHeader, Object[] oMessage) {
+            super(mhHeader, oMessage);
+        }
+
+        public String getLocation() {
+            return this.getField(2);
+        }
+
+        //the postcode, or null if it is missing
+        public Postcode getPostcode() {
+            return this.getPayload(Postcode.class);
+        }
+    }
+
+    /**
+     * A request made by a logged in user, carrying their session token in its header, such as a query of their orders
+     */
+    public static class UserRequest extends Request {
+
+        private UserRequest(MessageHeader mhHeader, Object[] oMessage) {
+            super(mhHeader, oMessage);
+        }
+
+        public String getSessionToken() {
+            return this.getField(0);
+        }
+    }
+
+    /**
+     * A checkout, carrying the dishes and amounts of the user's basket as its payload
+     */
+    public static class Checkout extends UserRequest {
+
+        private Checkout(MessageHeader mhHeader, Object[] oMessage) {
+            super(mhHeader, oMessage);
+        }
+
+        //the basket, as a checked copy, or null if it is missing or holds anything other than dishes and amounts
+        public Map<Dish, Number> getBasket() {
+            Map<?, ?> hmPayload = this.getPayload(Map.class);
+            if(hmPayload == null) return null;
+            Map<Dish, Number> hmBasket = new HashMap<>();
+            for(Map.Entry<?, ?> eLine : hmPayload.entrySet()) {
+                if(!(eLine.getKey() instanceof Dish) || !(eLine.getValue() instanceof Number)) return null;
+                hmBasket.put((Dish) eLine.getKey(), (Number) eLine.getValue());
+            }
+            return hmBasket;
+        }
+    }
+
+    /**
+     * A cancellation, carrying the ID of the order to cancel as its payload
+     */
+    public static class CancelOrder extends UserRequest {
+
+        private CancelOrder(MessageHeader mhHeader, Object[] oMessage) {
+            super(mhHeader, oMessage);
+        }
+
+        //the order ID, or null if it is missing
+        public Long getOrderId() {
+            Number nId = this.getPayload(Number.class);
+            return nId == null ? null : nId.longValue();
+        }
+    }
+
+    /**
+     * A query of the user's orders, carrying the query as its payload
+     */
+    public static class QueryOrders extends UserRequest {
+
+        private QueryOrders(MessageHeader mhHeader, Object[] oMessage) {
+            super(mhHeader, oMessage);
+        }
+
+        //the query, or null if it is missing
+        public OrderQuery getOrderQuery() {
+            return this.getPayload(OrderQuery.class);
+        }
+    }
+
+    /**
+     * A sync of a catalog, carrying the version the client already has as its payload, to be sent the changes since
+     */
+    public static class SyncCatalog extends Request {
+
+        private SyncCatalog(MessageHeader mhHeader, Object[] oMessage) {
+            super(mhHeader, oMessage);
+        }
+
+        //the version, or null if it is missing
+        public Long getSinceVersion() {
+            return this.getPayload(Long.class);
+        }
+    }
+}
@@ -5,10 +5,30 @@ import common.*;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.security.SecureRandom;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 
 /**
  * Server class that handles all the server-side processing of data, and sends along data to clients
@@ -18,15 +38,79 @@ import java.util.Map;
 
 public class Server implements ServerInterface {
 
+    //the most orders returned in one page
+    private static final int MAX_ORDER_PAGE = 1000;
+    //the most places in order queries remembered, for paging by offset
+    private static final int MAX_ORDER_CURSORS = 64;
+
+    /**
+     * Class that remembers how far through a query's matching orders a page reached, so the next page by offset can start from there
+     */
+    private static class OrderCursor {
+        private final long lVersion;
+        private final int iOffset;
+        private final long lLastId;
+
+        public OrderCursor(long lVersion, int iOffset, long lLastId) {
+            this.lVersion = lVersion;
+            this.iOffset = iOffset;
+            this.lLastId = lLastId;
+        }
+    }
+
     private CommsServer csComms;
+    private MessageDispatcher mdDispatcher;
+    private CommandRegistry crCommands;
     private StockManagement smStock;
     private List<Postcode> postcodeList;
     private List<Supplier> supplierList;
     private List<User> userList;
+    private Map<String, User> hmUsers = new ConcurrentHashMap<>();
     private Map<Staff, Thread> staffThreadMap;
     private Map<Drone, Thread> droneThreadMap;
-    private List<Order> ordersList;
+    private ConcurrentSkipListMap<Long, Order> hmOrders;
+    private AtomicLong lNextOrderId = new AtomicLong();
+    private long lLastPlacedAt;
+    //the first ID placed at each time, kept apart for the live orders and the archive so each drops the orders that leave it
+    private ConcurrentSkipListMap<Long, Long> hmOrderIdsByTime = new ConcurrentSkipListMap<>();
+    private ConcurrentSkipListMap<Long, Long> hmArchivedIdsByTime = new ConcurrentSkipListMap<>();
+    private Map<String, ConcurrentSkipListMap<Long, Order>> hmCustomerOrders = new ConcurrentHashMap<>();
+    private Map<String, ConcurrentSkipListMap<Long, Order>> hmOrdersByStatus = new ConcurrentHashMap<>();
+    //goes up whenever an order is added, removed, archived or changes status, so a saved place in a query is known to still hold
+    private AtomicLong lOrdersVersion = new AtomicLong();
+    private Map<List<Object>, OrderCursor> hmOrderCursors = Collections.synchronizedMap(new LinkedHashMap<List<Object>, OrderCursor>(16, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<List<Object>, OrderCursor> eEldest) {
+            return this.size() > MAX_ORDER_CURSORS;
+        }
+    });
+    private VersionedCatalog<Postcode> vcPostcodes = new VersionedCatalog<>();
     private List<UpdateListener> updateListeners = new ArrayList<>();
+    private Map<String, Set<Integer>> hmOrderSubscribers = new ConcurrentHashMap<>();
+    private ConcurrentSkipListMap<Long, ArchivedOrder> hmArchivedOrders = new ConcurrentSkipListMap<>();
+    private Map<String, ConcurrentSkipListMap<Long, ArchivedOrder>> hmCustomerHistory = new ConcurrentHashMap<>();
+    private Queue<Map.Entry<Long, Order>> qDeliveredOrders = new ConcurrentLinkedQueue<>();
+    private UpdateListener ulOrderListener = updateEvent -> {
+        Order oOrder = (Order) updateEvent.model;
+        if("order-status".equals(updateEvent.property)) {
+            //a live order is moved to its new status in the status index
+            if(updateEvent.oldValue != null) this.unindexStatus(oOrder, updateEvent.oldValue.toString());
+            if(hmOrders.get(oOrder.getId()) == oOrder) this.indexStatus(oOrder);
+            lOrdersVersion.incrementAndGet();
+            //a delivered order is kept live for the retention time, then archived
+            if(Order.STATUS_DELIVERED.equals(updateEvent.newValue)) {
+                qDeliveredOrders.add(new AbstractMap.SimpleImmutableEntry<>(System.currentTimeMillis(), oOrder));
+            }
+        }
+        this.pushOrders(oOrder.getCustomer());
+    };
+    private Map<String, User> hmSessionTokens = new ConcurrentHashMap<>();
+    //the session token each connection holds for each user name, so a user logging in again replaces their old token
+    private Map<Integer, Map<String, String>> hmConnectionTokens = new ConcurrentHashMap<>();
+    private SecureRandom srTokens = new SecureRandom();
+    private AtomicBoolean bShutdown = new AtomicBoolean();
 
     //constructor
     public Server(StockManagement smStock) {
@@ -44,12 +128,12 @@ public class Server implements ServerInterface {
             this.setRestockingDishesEnabled(true);
             this.setRestockingIngredientsEnabled(true);
 
-            this.postcodeList = new ArrayList<>();
+            this.postcodeList = new CopyOnWriteArrayList<>();
             this.supplierList = new ArrayList<>();
-            this.userList = new ArrayList<>();
+            this.userList = new CopyOnWriteArrayList<>();
             this.staffThreadMap = new HashMap<>();
             this.droneThreadMap = new HashMap<>();
-            this.ordersList = new ArrayList<>();
+            this.hmOrders = new ConcurrentSkipListMap<>();
         }
 
         try {
@@ -59,30 +143,198 @@ public class Server implements ServerInterface {
             io.printStackTrace();
         }
 
-        //wait on a new message, once received process it
-        Runnable rMessageListener = () -> {
-            while(true) {
-                synchronized (csComms) {
-                    try {
-                        csComms.wait();
-                    }
-                    catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                    }
-                    Object[] oMessage = csComms.getMessage();
-                    Server.this.processMessage(oMessage);
-                }
+        //when a client disconnects, stop pushing its orders to it and end the sessions it opened
+        csComms.addDisconnectListener(iIndex -> {
+            for(Set<Integer> subscribers : hmOrderSubscribers.values()) {
+                subscribers.remove(iIndex);
+            }
+            Map<String, String> hmTokens = hmConnectionTokens.remove(iIndex);
+            if(hmTokens != null) {
+                hmSessionTokens.keySet().removeAll(hmTokens.values());
+            }
+        });
+
+        //process the messages on a pool of workers, keeping each connection's messages in order
+        crCommands = new CommandRegistry();
+        this.registerCommands();
+        mdDispatcher = new MessageDispatcher(csComms, this::processMessage
+                , Settings.getInt(Settings.SERVER_WORKERS, Runtime.getRuntime().availableProcessors()));
+        mdDispatcher.start();
+
+        this.startOrderArchiver(Settings.getLong(Settings.SERVER_ORDER_RETENTION, 300) * 1000);
+
+        //on shutdown, finish what has been started and then save all the data to the persistence file
+        Runtime.getRuntime().addShutdownHook(new Thread(this::shutdown, "server-shutdown"));
+    }
+
+    //start a thread that moves delivered orders out of the live orders once they have been kept for the retention time
+    private void startOrderArchiver(long lRetention) {
+        ScheduledExecutorService sesArchiver = Executors.newSingleThreadScheduledExecutor(rArchive -> {
+            Thread tArchive = new Thread(rArchive, "order-archiver");
+            tArchive.setDaemon(true);
+            return tArchive;
+        });
+        long lPeriod = Math.max(100, Math.min(1000, lRetention));
+        sesArchiver.scheduleWithFixedDelay(() -> this.archiveDeliveredOrders(lRetention), lPeriod, lPeriod, TimeUnit.MILLISECONDS);
+    }
+
+    //archive every order delivered longer ago than the retention, they are queued in the order they were delivered
+    private void archiveDeliveredOrders(long lRetention) {
+        long lCutoff = System.currentTimeMillis() - lRetention;
+        Map.Entry<Long, Order> eDelivered;
+        while((eDelivered = qDeliveredOrders.peek()) != null && eDelivered.getKey() <= lCutoff) {
+            qDeliveredOrders.poll();
+            this.archiveOrder(eDelivered.getValue());
+        }
+    }
+
+    //move an order from the live orders into the archive, unless it has been removed in the meantime
+    //the customer's live orders are pushed again without it, so their clients stop showing it as live
+    private void archiveOrder(Order order) {
+        if(!this.deleteOrder(order)) return;
+        this.putArchivedOrder(new ArchivedOrder(order, System.currentTimeMillis()));
+        this.pushOrders(order.getCustomer());
+    }
+
+    //add an order to the archive and to its customer's history
+    private void putArchivedOrder(ArchivedOrder aoOrder) {
+        synchronized (this.lNextOrderId) {
+            hmArchivedIdsByTime.merge(aoOrder.getPlacedAt(), aoOrder.getId(), Math::min);
+        }
+        hmArchivedOrders.put(aoOrder.getId(), aoOrder);
+        lOrdersVersion.incrementAndGet();
+        if(aoOrder.getCustomerName() != null) {
+            hmCustomerHistory.computeIfAbsent(aoOrder.getCustomerName(), szName -> new ConcurrentSkipListMap<>()).put(aoOrder.getId(), aoOrder);
+        }
+    }
+
+    //remove an order from the archive, returning whether it was there
+    private boolean deleteArchivedOrder(long lId) {
+        ArchivedOrder aoOrder = hmArchivedOrders.remove(lId);
+        if(aoOrder == null) return false;
+        //the time is handed on to the next archived order if it was placed at the same time
+        synchronized (this.lNextOrderId) {
+            hmArchivedIdsByTime.computeIfPresent(aoOrder.getPlacedAt(), (lPlacedAt, lFirstId) -> {
+                if(lFirstId != lId) return lFirstId;
+                Map.Entry<Long, ArchivedOrder> eNext = hmArchivedOrders.higherEntry(lId);
+                return eNext != null && eNext.getValue().getPlacedAt() == lPlacedAt ? eNext.getKey() : null;
+            });
+        }
+        lOrdersVersion.incrementAndGet();
+        if(aoOrder.getCustomerName() != null) {
+            Map<Long, ArchivedOrder> hmHistory = hmCustomerHistory.get(aoOrder.getCustomerName());
+            if(hmHistory != null) hmHistory.remove(aoOrder.getId());
+        }
+        return true;
+    }
+
+    //rebuild an archived order, with the customer as they are now registered
+    private Order restoreOrder(ArchivedOrder aoOrder) {
+        return aoOrder.toOrder(this.getStock(), aoOrder.getCustomerName() == null ? null : hmUsers.get(aoOrder.getCustomerName()));
+    }
+
+    //every archived order, oldest first
+    public List<Order> getArchivedOrders() {
+        List<Order> lOrders = new ArrayList<>();
+        for(ArchivedOrder aoOrder : hmArchivedOrders.values()) {
+            lOrders.add(this.restoreOrder(aoOrder));
+        }
+        return lOrders;
+    }
+
+    //the archived orders of a customer, oldest first
+    public List<Order> getOrderHistory(String szCustomer) {
+        List<Order> lOrders = new ArrayList<>();
+        Map<Long, ArchivedOrder> hmHistory = hmCustomerHistory.get(szCustomer);
+        if(hmHistory != null) {
+            for(ArchivedOrder aoOrder : hmHistory.values()) {
+                lOrders.add(this.restoreOrder(aoOrder));
             }
-        };
+        }
+        return lOrders;
+    }
+
+    public int getArchivedOrderCount() {
+        return hmArchivedOrders.size();
+    }
+
+    //shut the server down in phases, so no accepted request or unfinished work is lost, then save everything
+    //each phase that waits is given its own deadline, and how long every phase took is reported
+    public void shutdown() {
+        if(!bShutdown.compareAndSet(false, true)) return;
+        long lTimeout = Settings.getLong(Settings.SERVER_SHUTDOWN_TIMEOUT, 5000);
+        long lStart = System.currentTimeMillis();
+        long lPhase = lStart;
+
+        try {
+            //stop new connections and requests, clients asking now are told the server is busy
+            csComms.stopAccepting();
+            lPhase = this.reportPhase("stop accepting", lPhase, "");
+
+            //process every request already admitted, then stop the dispatcher and its workers
+            int iUnprocessed = csComms.awaitProcessed(lPhase + lTimeout);
+            mdDispatcher.stop(lPhase + lTimeout);
+            lPhase = this.reportPhase("drain requests", lPhase, iUnprocessed + " left unprocessed");
+
+            //write the replies out to the clients before closing their connections
+            int iUnsent = csComms.awaitFlushed(lPhase + lTimeout);
+            csComms.close();
+            lPhase = this.reportPhase("flush replies", lPhase, iUnsent + " left unsent");
+
+            int iRequeued = this.stopWorkers(lPhase + lTimeout);
+            lPhase = this.reportPhase("stop staff and drones", lPhase, iRequeued + " stopped part way and requeued");
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
 
-        Thread tMessageListener = new Thread(rMessageListener);
-        tMessageListener.start();
+        //whatever happened above, the data is always saved
+        DataPersistence da = new DataPersistence();
+        da.processData(this);
+        this.reportPhase("save", lPhase, "");
+        System.out.println("Shutdown took " + (System.currentTimeMillis() - lStart) + " ms");
+    }
+
+    //print how long a phase of the shutdown took, returning the time the next phase starts
+    private long reportPhase(String szPhase, long lPhaseStart, String szDetail) {
+        long lNow = System.currentTimeMillis();
+        System.out.println("Shutdown phase '" + szPhase + "' took " + (lNow - lPhaseStart) + " ms"
+                + (szDetail.isEmpty() ? "" : ", " + szDetail));
+        return lNow;
+    }
+
+    //ask every member of staff and drone to stop after the work they are on, and stop any still working at the deadline
+    //where they are, putting their work back, returning how many had to be stopped that way
+    private int stopWorkers(long lDeadline) throws InterruptedException {
+        Map<Thread, BooleanSupplier> hmWorkers = new HashMap<>();
+        for(Map.Entry<Staff, Thread> eStaff : staffThreadMap.entrySet()) {
+            eStaff.getKey().stop();
+            hmWorkers.put(eStaff.getValue(), eStaff.getKey()::isBusy);
+        }
+        for(Map.Entry<Drone, Thread> eDrone : droneThreadMap.entrySet()) {
+            eDrone.getKey().stop();
+            hmWorkers.put(eDrone.getValue(), eDrone.getKey()::isBusy);
+        }
 
-        //on shutdown, save all the data to the persistence file
-        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
-            DataPersistence da = new DataPersistence();
-            da.processData(this);
-        }));
+        //idle workers are waiting for work, so they are woken to see they have been stopped
+        while(System.currentTimeMillis() < lDeadline) {
+            Iterator<Map.Entry<Thread, BooleanSupplier>> itWorkers = hmWorkers.entrySet().iterator();
+            while(itWorkers.hasNext()) {
+                Map.Entry<Thread, BooleanSupplier> eWorker = itWorkers.next();
+                if(!eWorker.getKey().isAlive()) itWorkers.remove();
+                else if(!eWorker.getValue().getAsBoolean()) eWorker.getKey().interrupt();
+            }
+            if(hmWorkers.isEmpty()) return 0;
+            Thread.sleep(10);
+        }
+
+        for(Thread tWorker : hmWorkers.keySet()) {
+            tWorker.interrupt();
+        }
+        for(Thread tWorker : hmWorkers.keySet()) {
+            tWorker.join(1000);
+        }
+        return hmWorkers.size();
     }
 
     //process a configuration file, such that it loads all the items in to the server
@@ -97,27 +349,25 @@ public class Server implements ServerInterface {
         }
 
         this.supplierList = c.getSupplierList();
-        this.postcodeList = c.getPostcodeList();
-        this.smStock = c.getSmStock();
-        this.userList = c.getUserList();
-
-        this.userList = new ArrayList<>();
-        for(User u : c.getUserList()) {
-            this.userList.add(u);
+        this.postcodeList = new CopyOnWriteArrayList<>(c.getPostcodeList());
+        this.vcPostcodes = new VersionedCatalog<>();
+        for(Postcode p : this.postcodeList) {
+            this.vcPostcodes.added(p);
         }
+        this.smStock = c.getSmStock();
+        this.userList = new CopyOnWriteArrayList<>(c.getUserList());
+        this.hmUsers = new ConcurrentHashMap<>(c.getUserMap());
 
         //for threaded applications, add the staff to a mapping and start their respective threads
         this.staffThreadMap = new HashMap<>();
         for(Staff s : c.getStaffList()) {
-            Thread tNewStaff = new Thread(s);
-            tNewStaff.start();
+            Thread tNewStaff = Workers.start("staff-" + s.getName(), s, false);
             this.staffThreadMap.put(s, tNewStaff);
         }
 
         this.droneThreadMap = new HashMap<>();
         for(Drone d : c.getDroneList()) {
-            Thread tNewDrone = new Thread(d);
-            tNewDrone.start();
+            Thread tNewDrone = Workers.start("drone", d, false);
             this.droneThreadMap.put(d, tNewDrone);
         }
 
@@ -134,9 +384,26 @@ public class Server implements ServerInterface {
             else this.getStock().setStockLevel(d, 10);
         }
 
-        this.ordersList = new ArrayList<>();
+        this.hmOrders = new ConcurrentSkipListMap<>();
+        this.hmCustomerOrders = new ConcurrentHashMap<>();
+        this.hmOrderIdsByTime = new ConcurrentSkipListMap<>();
+        this.hmArchivedIdsByTime = new ConcurrentSkipListMap<>();
+        this.hmArchivedOrders = new ConcurrentSkipListMap<>();
+        this.hmCustomerHistory = new ConcurrentHashMap<>();
+        this.hmOrdersByStatus = new ConcurrentHashMap<>();
+        this.lOrdersVersion.incrementAndGet();
+        //orders saved with their IDs keep them, and are put back before any saved without, which are given new ones after them
+        for(Order o : c.getArchivedOrderList()) {
+            this.reloadOrder(o, true);
+        }
+        for(Order o : c.getOrderList()) {
+            if(o.getId() > 0) this.reloadOrder(o, false);
+        }
         for(Order o : c.getOrderList()) {
-            this.ordersList.add(o);
+            if(o.getId() > 0) continue;
+            o.addUpdateListener(ulOrderListener);
+            this.addOrder(o);
+            this.resumeOrder(o);
         }
     }
 
@@ -180,14 +447,14 @@ public class Server implements ServerInterface {
     @Override
     public void removeDish(Dish dish) throws UnableToDeleteException {
         try {
-            if(!smStock.getDishesList().contains(dish)
+            if(!smStock.containsDish(dish)
                     || !smStock.getAllDishStockLevels().containsKey(dish)
                     || !smStock.getAllDishRestockThresholds().containsKey(dish)
                     || !smStock.getAllDishRestockAmounts().containsKey(dish)) {
                 throw new UnableToDeleteException("Dish not present");
             }
             else {
-                smStock.getDishesList().remove(dish);
+                smStock.removeFromList(dish);
                 smStock.getAllDishStockLevels().remove(dish);
                 smStock.getAllDishRestockThresholds().remove(dish);
                 smStock.getAllDishRestockAmounts().remove(dish);
@@ -335,8 +602,7 @@ public class Server implements ServerInterface {
     @Override
     public Drone addDrone(Number speed) {
         Drone dNewDrone = new Drone(this.getStock(), speed);
-        Thread tNewDrone = new Thread(dNewDrone);
-        tNewDrone.start();
+        Thread tNewDrone = Workers.start("drone", dNewDrone, false);
 
         this.droneThreadMap.put(dNewDrone, tNewDrone);
         return dNewDrone;
@@ -374,8 +640,7 @@ public class Server implements ServerInterface {
     @Override
     public Staff addStaff(String name) {
         Staff dNewStaff = new Staff(name, this.getStock());
-        Thread tNewStaff = new Thread(dNewStaff);
-        tNewStaff.start();
+        Thread tNewStaff = Workers.start("staff-" + name, dNewStaff, false);
 
         this.staffThreadMap.put(dNewStaff, tNewStaff);
         return dNewStaff;
@@ -395,17 +660,245 @@ public class Server implements ServerInterface {
         return staff.getStatus();
     }
 
+    //every live order, oldest first, as a copy so orders can be placed and removed while it is read
+    //orders delivered longer ago than the retention time are in the archive instead
     @Override
     public List<Order> getOrders() {
-        return this.ordersList;
+        return new ArrayList<>(this.hmOrders.values());
     }
 
+    //a page of the orders matching a query, live and archived, found through the indexes by ID, customer, status and time placed
+    //only the orders on the page are built, so paging deep into millions of orders holds no more than a page in memory
+    @Override
+    public OrderPage getOrders(OrderQuery query) {
+        //read before looking through the orders, so a place saved from this query is dropped if they change meanwhile
+        long lVersion = lOrdersVersion.get();
+
+        //the window of times placed and where the last page ended narrow the range of IDs to look through
+        long lFromId = 1;
+        long lToId = Long.MAX_VALUE;
+        if(query.getPlacedFrom() > 0) {
+            Long lFirstId = this.getFirstIdPlacedFrom(query.getPlacedFrom());
+            if(lFirstId == null) return new OrderPage(new ArrayList<>(), false);
+            lFromId = lFirstId;
+        }
+        if(query.getPlacedTo() > 0) {
+            Long lFirstId = this.getFirstIdPlacedFrom(query.getPlacedTo());
+            if(lFirstId != null) lToId = lFirstId;
+        }
+        if(query.getAfterId() > 0) {
+            if(query.isNewestFirst()) lToId = Math.min(lToId, query.getAfterId());
+            else lFromId = Math.max(lFromId, query.getAfterId() + 1);
+        }
+
+        //a page by offset starts from where an earlier page of the same query got to, if the orders have not changed since
+        int iSkip = query.getOffset();
+        List<Object> lCursorKey = getCursorKey(query);
+        OrderCursor ocCursor = iSkip > 0 ? hmOrderCursors.get(lCursorKey) : null;
+        if(ocCursor != null && ocCursor.lVersion == lVersion && ocCursor.iOffset <= iSkip) {
+            iSkip -= ocCursor.iOffset;
+            if(query.isNewestFirst()) lToId = Math.min(lToId, ocCursor.lLastId);
+            else lFromId = Math.max(lFromId, ocCursor.lLastId + 1);
+        }
+        if(lFromId >= lToId) return new OrderPage(new ArrayList<>(), false);
+
+        //a customer's own orders are looked through instead of everyone's, otherwise only the orders with the status
+        //only delivered orders are ever archived
+        NavigableMap<Long, Order> nmLive = hmOrders;
+        NavigableMap<Long, ArchivedOrder> nmArchived = hmArchivedOrders;
+        if(query.getCustomer() != null) {
+            nmLive = hmCustomerOrders.getOrDefault(query.getCustomer(), new ConcurrentSkipListMap<>());
+            nmArchived = hmCustomerHistory.getOrDefault(query.getCustomer(), new ConcurrentSkipListMap<>());
+        }
+        else if(query.getStatus() != null) {
+            nmLive = hmOrdersByStatus.getOrDefault(query.getStatus(), new ConcurrentSkipListMap<>());
+        }
+        if(!query.isIncludeArchived() || (query.getStatus() != null && !Order.STATUS_DELIVERED.equals(query.getStatus()))) {
+            nmArchived = new ConcurrentSkipListMap<>();
+        }
+        nmLive = nmLive.subMap(lFromId, true, lToId, false);
+        nmArchived = nmArchived.subMap(lFromId, true, lToId, false);
+        if(query.isNewestFirst()) {
+            nmLive = nmLive.descendingMap();
+            nmArchived = nmArchived.descendingMap();
+        }
+
+        //walk both tiers together in ID order, skipping the offset and stopping once the page is full
+        //the status is still checked, as an order can change status while it is being moved in the status index
+        Iterator<Order> itLive = nmLive.values().iterator();
+        Iterator<ArchivedOrder> itArchived = nmArchived.values().iterator();
+        Order oLive = itLive.hasNext() ? itLive.next() : null;
+        ArchivedOrder aoArchived = itArchived.hasNext() ? itArchived.next() : null;
+        int iLimit = Math.min(query.getLimit(), MAX_ORDER_PAGE);
+        List<Order> lPage = new ArrayList<>();
+        boolean bMore = false;
+        while(oLive != null || aoArchived != null) {
+            boolean bLiveFirst = aoArchived == null || (oLive != null
+                    && (query.isNewestFirst() ? oLive.getId() > aoArchived.getId() : oLive.getId() < aoArchived.getId()));
+            Order oMatch = null;
+            ArchivedOrder aoMatch = null;
+            if(bLiveFirst) {
+                if(query.getStatus() == null || query.getStatus().equals(oLive.getStatus())) oMatch = oLive;
+                oLive = itLive.hasNext() ? itLive.next() : null;
+            }
+            else {
+                if(query.getStatus() == null || query.getStatus().equals(aoArchived.getStatus())) aoMatch = aoArchived;
+                aoArchived = itArchived.hasNext() ? itArchived.next() : null;
+            }
+            if(oMatch == null && aoMatch == null) continue;
+
+            if(iSkip > 0) {
+                iSkip--;
+            }
+            else if(lPage.size() == iLimit) {
+                bMore = true;
+                break;
+            }
+            else {
+                lPage.add(oMatch != null ? oMatch : this.restoreOrder(aoMatch));
+            }
+        }
+
+        //remember where this page ended, for the page after it
+        if(!lPage.isEmpty()) {
+            hmOrderCursors.put(lCursorKey, new OrderCursor(lVersion, query.getOffset() + lPage.size(), lPage.get(lPage.size() - 1).getId()));
+        }
+        return new OrderPage(lPage, bMore);
+    }
+
+    //a query without its offset and limit, so every page of the same query shares a saved place
+    private static List<Object> getCursorKey(OrderQuery query) {
+        return Arrays.asList(query.getCustomer(), query.getStatus(), query.getPlacedFrom(), query.getPlacedTo()
+                , query.getAfterId(), query.isNewestFirst(), query.isIncludeArchived());
+    }
+
+    //the order with the given ID, live or archived, or null if there is none
+    public Order getOrder(long lId) {
+        Order oOrder = this.hmOrders.get(lId);
+        if(oOrder != null) return oOrder;
+        ArchivedOrder aoOrder = this.hmArchivedOrders.get(lId);
+        return aoOrder == null ? null : this.restoreOrder(aoOrder);
+    }
+
+    //a removed order that has not yet left is cancelled too, so a drone does not deliver it
     @Override
     public void removeOrder(Order order) throws UnableToDeleteException {
-        if(this.getOrders().contains(order)) {
-            this.getOrders().remove(order);
+        if(this.deleteOrder(order)) {
+            order.cancel();
+            this.pushOrders(order.getCustomer());
+        }
+        else if(!this.deleteArchivedOrder(order.getId())) {
+            throw new UnableToDeleteException("Order not present");
+        }
+    }
+
+    //the ID of the first order, live or archived, placed at or after the given time, or null if there is none
+    //IDs are given out in the order orders are placed, so this is the lower of the first IDs from each tier
+    private Long getFirstIdPlacedFrom(long lTime) {
+        Map.Entry<Long, Long> eLive = hmOrderIdsByTime.ceilingEntry(lTime);
+        Map.Entry<Long, Long> eArchived = hmArchivedIdsByTime.ceilingEntry(lTime);
+        if(eLive == null) return eArchived == null ? null : eArchived.getValue();
+        return eArchived == null ? eLive.getValue() : Math.min(eLive.getValue(), eArchived.getValue());
+    }
+
+    //add an order to the orders by ID and to its customer's orders, giving it the next ID and the time it was placed
+    private void addOrder(Order order) {
+        //IDs and times are given out together and never go backwards, so a window of times is always a range of IDs
+        synchronized (this.lNextOrderId) {
+            order.setId(lNextOrderId.incrementAndGet());
+            lLastPlacedAt = Math.max(lLastPlacedAt, System.currentTimeMillis());
+            order.setPlacedAt(lLastPlacedAt);
+            hmOrderIdsByTime.putIfAbsent(lLastPlacedAt, order.getId());
+            //published before the lock is let go, so an order is never missing from the indexes while a later one is in them
+            this.publishOrder(order);
+        }
+    }
+
+    //add an order to the orders by ID and to its customer's orders
+    private void publishOrder(Order order) {
+        this.hmOrders.put(order.getId(), order);
+        if(order.getCustomer() != null) {
+            //added inside compute, so it cannot land in a map that is being dropped for being empty
+            hmCustomerOrders.compute(order.getCustomer().getName(), (szName, customerOrders) -> {
+                if(customerOrders == null) customerOrders = new ConcurrentSkipListMap<>();
+                customerOrders.put(order.getId(), order);
+                return customerOrders;
+            });
+        }
+        this.indexStatus(order);
+        lOrdersVersion.incrementAndGet();
+    }
+
+    //add a live order to the orders with its current status
+    private void indexStatus(Order order) {
+        if(order.getStatus() == null) return;
+        hmOrdersByStatus.compute(order.getStatus(), (szStatus, statusOrders) -> {
+            if(statusOrders == null) statusOrders = new ConcurrentSkipListMap<>();
+            statusOrders.put(order.getId(), order);
+            return statusOrders;
+        });
+    }
+
+    //remove an order from the orders with the given status
+    private void unindexStatus(Order order, String szStatus) {
+        hmOrdersByStatus.computeIfPresent(szStatus, (szKey, statusOrders) -> {
+            statusOrders.remove(order.getId(), order);
+            return statusOrders.isEmpty() ? null : statusOrders;
+        });
+    }
+
+    //put back an order saved with its ID and time placed, into the live orders or the archive
+    //the ID sequence and the index by time are moved on past it, so the orders placed after the reload carry on from it
+    private void reloadOrder(Order order, boolean bArchived) {
+        synchronized (this.lNextOrderId) {
+            if(order.getId() > lNextOrderId.get()) lNextOrderId.set(order.getId());
+            lLastPlacedAt = Math.max(lLastPlacedAt, order.getPlacedAt());
+            if(!bArchived) hmOrderIdsByTime.merge(order.getPlacedAt(), order.getId(), Math::min);
+        }
+        if(bArchived) {
+            this.putArchivedOrder(new ArchivedOrder(order, System.currentTimeMillis()));
+            return;
+        }
+
+        //an order that was on its way when the server stopped never arrived, so it is waiting on a drone again
+        if(Order.STATUS_DELIVERING.equals(order.getStatus())) order.setStatus(Order.STATUS_WAITING);
+        order.addUpdateListener(ulOrderListener);
+        this.publishOrder(order);
+        this.resumeOrder(order);
+    }
+
+    //carry on with a live order that has been reloaded from where its saved status left it
+    private void resumeOrder(Order order) {
+        //a delivered order that was still live is kept for the retention time again before it is archived
+        if(Order.STATUS_DELIVERED.equals(order.getStatus())) {
+            qDeliveredOrders.add(new AbstractMap.SimpleImmutableEntry<>(System.currentTimeMillis(), order));
+        }
+        //the delivery queue is not saved, so any order still to be delivered is put back on it
+        else if(!order.isCancelled()) {
+            this.getStock().addToOrderQueue(order);
         }
-        else throw new UnableToDeleteException("Order not present");
+    }
+
+    //remove an order from the orders by ID and from its customer's orders, returning whether it was there
+    private boolean deleteOrder(Order order) {
+        if(!this.hmOrders.remove(order.getId(), order)) return false;
+        if(order.getCustomer() != null) {
+            hmCustomerOrders.computeIfPresent(order.getCustomer().getName(), (szName, customerOrders) -> {
+                customerOrders.remove(order.getId(), order);
+                return customerOrders.isEmpty() ? null : customerOrders;
+            });
+        }
+        if(order.getStatus() != null) this.unindexStatus(order, order.getStatus());
+        //the time is handed on to the next live order if it was placed at the same time
+        synchronized (this.lNextOrderId) {
+            hmOrderIdsByTime.computeIfPresent(order.getPlacedAt(), (lPlacedAt, lFirstId) -> {
+                if(lFirstId != order.getId()) return lFirstId;
+                Map.Entry<Long, Order> eNext = hmOrders.higherEntry(order.getId());
+                return eNext != null && eNext.getValue().getPlacedAt() == lPlacedAt ? eNext.getKey() : null;
+            });
+        }
+        lOrdersVersion.incrementAndGet();
+        return true;
     }
 
     @Override
@@ -432,6 +925,16 @@ public class Server implements ServerInterface {
         return dCost;
     }
 
+    //the number of clients currently connected to the server
+    public int getConnectionCount() {
+        return this.csComms.getConnectionCount();
+    }
+
+    //the comms server, for its connection and message metrics
+    public CommsServer getCommsServer() {
+        return this.csComms;
+    }
+
     @Override
     public List<Postcode> getPostcodes() {
         return this.postcodeList;
@@ -441,18 +944,30 @@ public class Server implements ServerInterface {
     public void addPostcode(String code, Number distance) {
         Postcode pNewPostcode = new Postcode(code, distance);
         this.postcodeList.add(pNewPostcode);
+        this.vcPostcodes.added(pNewPostcode);
     }
 
     @Override
     public void removePostcode(Postcode postcode) throws UnableToDeleteException {
         if(this.postcodeList.contains(postcode)) {
             this.postcodeList.remove(postcode);
+            this.vcPostcodes.removed(postcode);
         }
         else {
             throw new UnableToDeleteException("Postcode not present");
         }
     }
 
+    //the version of the postcode catalog, which goes up whenever a postcode is added, changed or removed
+    public long getPostcodeCatalogVersion() {
+        return this.vcPostcodes.getVersion();
+    }
+
+    //get the postcodes added, changed and removed since the given version of the postcode catalog
+    public CatalogDelta<Postcode> getPostcodesDelta(long lSinceVersion) {
+        return this.vcPostcodes.getDelta(lSinceVersion, this.getPostcodes());
+    }
+
     @Override
     public List<User> getUsers() {
         return this.userList;
@@ -460,109 +975,232 @@ public class Server implements ServerInterface {
 
     @Override
     public void removeUser(User user) throws UnableToDeleteException {
-        if(this.getUsers().contains(user)) {
-            this.getUsers().remove(user);
+        if(this.getUsers().remove(user)) {
+            hmUsers.remove(user.getName(), user);
+            hmSessionTokens.values().removeIf(uSession -> uSession == user);
         }
         else throw new UnableToDeleteException("User not present");
     }
 
     //register a user into the system
-    private void registerUser(Object[] oMessage) {
-        String[] szSplitMessage = ((String) oMessage[0]).split(":");
-        for(User u : this.getUsers()) {
-            if(u.getName().equals(szSplitMessage[2])) {
-                this.csComms.sendMessage(Integer.parseInt(szSplitMessage[1]), null);
-                return;
-            }
+    private void registerUser(Request.Registration rRequest) {
+        //registrations are processed in parallel, so the name is claimed in the index in the same step as it is checked
+        User uNewUser = new User(rRequest.getUserName(), rRequest.getPassword(), rRequest.getLocation(), rRequest.getPostcode());
+        if(uNewUser.getName() == null || hmUsers.putIfAbsent(uNewUser.getName(), uNewUser) != null) {
+            this.sendReply(rRequest, null);
+            return;
         }
 
         //if the username doesn't exist, add the user to the list
-        User uNewUser = new User(szSplitMessage[2], szSplitMessage[3], szSplitMessage[4], (Postcode) oMessage[1]);
         this.getUsers().add(uNewUser);
-        this.csComms.sendMessage(Integer.parseInt(szSplitMessage[1]), uNewUser);
+        this.sendReply(rRequest, this.openSession(rRequest, uNewUser));
         this.notifyUpdate();
     }
 
     //login a user, based upon their password
-    private void loginUser(String[] szMessage) {
-        for(User u : this.getUsers()) {
-            //if the username and password match, sign them in
-            if(u.getName().equals(szMessage[2])
-                    && u.getPassword().equals(szMessage[3])) {
-                this.csComms.sendMessage(Integer.parseInt(szMessage[1]), u);
-                return;
-            }
+    private void loginUser(Request.Login rRequest) {
+        String szName = rRequest.getUserName();
+        User u = szName == null ? null : hmUsers.get(szName);
+        //if the username and password match, sign them in
+        if(u != null && u.getPassword().equals(rRequest.getPassword())) {
+            this.sendReply(rRequest, this.openSession(rRequest, u));
+            return;
         }
 
-        this.csComms.sendMessage(Integer.parseInt(szMessage[1]), null);
+        this.sendReply(rRequest, null);
+    }
+
+    //start a session for a user who has registered or logged in, the token stands for the user in every later request
+    //any token the connection already held for the user is revoked, so logging in again does not leave the old one usable
+    //the token is checked against the connection after it is kept, so a connection that closed meanwhile cannot keep it
+    private UserSession openSession(Request rRequest, User user) {
+        byte[] bToken = new byte[16];
+        srTokens.nextBytes(bToken);
+        String szToken = Base64.getUrlEncoder().withoutPadding().encodeToString(bToken);
+
+        int iIndex = rRequest.getConnectionIndex();
+        hmSessionTokens.put(szToken, user);
+        String szOldToken = hmConnectionTokens.computeIfAbsent(iIndex, iKey -> new ConcurrentHashMap<>()).put(user.getName(), szToken);
+        if(szOldToken != null) {
+            hmSessionTokens.remove(szOldToken);
+        }
+        if(!csComms.isConnected(iIndex)) {
+            hmSessionTokens.remove(szToken);
+            hmConnectionTokens.computeIfPresent(iIndex, (iKey, hmTokens) -> {
+                hmTokens.remove(user.getName(), szToken);
+                return hmTokens.isEmpty() ? null : hmTokens;
+            });
+            return null;
+        }
+        return new UserSession(szToken, user);
+    }
+
+    //the user whose session token is in the request's header, or null if the token is missing or unknown
+    private User getSessionUser(Request.UserRequest rRequest) {
+        String szToken = rRequest.getSessionToken();
+        return szToken == null ? null : hmSessionTokens.get(szToken);
     }
 
     //given a user's basket, send it into an order to be delivered
-    private void checkoutBasket(Object[] oMessage) {
-        Order newOrder = new Order((User) oMessage[1]);
-        newOrder.setOrder((HashMap<Dish, Number>) oMessage[2]);
-        for(Dish dDish : ((HashMap<Dish, Number>) oMessage[2]).keySet()) {
-            for(Dish dDishName : this.getStock().getDishesList()) {
-                if(dDish.getName().equals(dDishName.getName())) {
-                    this.getStock().setStockLevel(dDishName
-                            , this.getStock().getStockLevel(dDishName).intValue() - newOrder.getClientOrder().get(dDish).intValue());
-                }
+    private void checkoutBasket(Request.Checkout rRequest) {
+        User uCustomer = this.getSessionUser(rRequest);
+        Map<Dish, Number> hmLines = rRequest.getBasket();
+        if(uCustomer == null || hmLines == null) {
+            this.sendReply(rRequest, null);
+            return;
+        }
+
+        //the client's copies of the dishes are swapped for the ones on the menu, anything no longer on the menu is left out
+        HashMap<Dish, Number> hmBasket = new HashMap<>();
+        for(Map.Entry<Dish, Number> eLine : hmLines.entrySet()) {
+            Dish dDish = this.getStock().resolveDish(eLine.getKey());
+            if(dDish != null) {
+                hmBasket.merge(dDish, eLine.getValue(), (nQuantity, nMore) -> nQuantity.intValue() + nMore.intValue());
             }
         }
-        this.getOrders().add(newOrder);
-        synchronized (this.getStock().getIngredientsList()) {
-            this.getStock().addToOrderQueue(newOrder);
-            this.getStock().getIngredientsList().notify();
+
+        Order newOrder = new Order(uCustomer);
+        newOrder.setOrder(hmBasket);
+        synchronized (this.getStock()) {
+            for(Map.Entry<Dish, Number> eLine : hmBasket.entrySet()) {
+                this.getStock().removeFromStock(eLine.getKey(), eLine.getValue().intValue());
+            }
         }
+        newOrder.addUpdateListener(ulOrderListener);
+        this.addOrder(newOrder);
+        this.getStock().addToOrderQueue(newOrder);
 
-        this.csComms.sendMessage(Integer.parseInt(((String) oMessage[0]).split(":")[1]), newOrder);
+        this.sendReply(rRequest, newOrder);
+        this.pushOrders(newOrder.getCustomer());
         this.notifyUpdate();
     }
 
-    //get a set of users created by a user
-    private void getUserOrders(Object[] oMessage) {
-        List<Order> userOrders = new ArrayList<>();
-        for(Order o : this.getOrders()) {
-            if(o.getCustomer() == oMessage[1]) {
-                userOrders.add(o);
-            }
+    //get a page of the orders of the user whose session sent the message, a client can only ever query its own user's orders
+    private void queryUserOrders(Request.QueryOrders rRequest) {
+        User uCustomer = this.getSessionUser(rRequest);
+        OrderQuery query = rRequest.getOrderQuery();
+        if(uCustomer == null || query == null) {
+            this.sendReply(rRequest, null);
+            return;
         }
-        this.csComms.sendMessage(Integer.parseInt(((String) oMessage[0]).split(":")[1]), userOrders);
+        query.setCustomer(uCustomer.getName());
+        this.sendReply(rRequest, this.getOrders(query));
     }
 
-    //method that processes the mesages given to it by the users
-    private void processMessage(Object[] oMessage) {
-        String[] szSplitMessage = ((String) oMessage[0]).split(":");
+    //get the orders of the user whose session sent the message
+    private void getUserOrders(Request.UserRequest rRequest) {
+        User uCustomer = this.getSessionUser(rRequest);
+        this.sendReply(rRequest, uCustomer == null ? null : this.getCustomerOrders(uCustomer.getName()));
+    }
 
-        //change how the data is processed based upon the identifier in the first part of the message
-        switch(szSplitMessage[0]) {
-            case "REGISTER":
-                this.registerUser(oMessage);
-                break;
-            case "LOGIN":
-                this.loginUser(szSplitMessage);
-                break;
-            case "GETPOSTCODES":
-                this.csComms.sendMessage(Integer.parseInt(szSplitMessage[1])
-                        , this.getPostcodes());
-                break;
-            case "GETDISHES":
-                this.csComms.sendMessage(Integer.parseInt(szSplitMessage[1])
-                        , this.getDishes());
-                break;
-            case "GETORDERS":
-                this.getUserOrders(oMessage);
-                break;
-            case "CHECKOUT":
-                this.checkoutBasket(oMessage);
-                break;
-            case "CANCELORDER":
-                this.getOrders().remove(oMessage[1]);
-                break;
+    //cancel one of the orders of the user whose session sent the message, given by its ID, if it has not yet left
+    //the order stays on the delivery queue and is skipped by the drone that takes it, so nothing needs searching
+    private void cancelOrder(Request.CancelOrder rRequest) {
+        User uCustomer = this.getSessionUser(rRequest);
+        Long lId = rRequest.getOrderId();
+        Order oOrder = lId == null ? null : this.getOrder(lId);
+        if(uCustomer == null || oOrder == null || oOrder.getCustomer() == null
+                || !oOrder.getCustomer().getName().equals(uCustomer.getName()) || !oOrder.cancel()) {
+            this.sendReply(rRequest, false);
+            return;
+        }
+        this.deleteOrder(oOrder);
+        this.sendReply(rRequest, true);
+        this.pushOrders(uCustomer);
+    }
+
+    //get every order placed by a customer, keyed on their name as orders loaded from a file may hold a copy of the user
+    private List<Order> getCustomerOrders(String szName) {
+        Map<Long, Order> customerOrders = hmCustomerOrders.get(szName);
+        return customerOrders == null ? new ArrayList<>() : new ArrayList<>(customerOrders.values());
+    }
+
+    //subscribe a client to a user's orders, replying with the current orders so the client only needs the pushed changes from now on
+    private void subscribeOrders(Request.UserRequest rRequest) {
+        User uCustomer = this.getSessionUser(rRequest);
+        if(uCustomer == null) {
+            this.sendReply(rRequest, null);
+            return;
+        }
+        //the subscription is checked against the connection after it is added, so a connection that closed meanwhile is not pushed to
+        String szName = uCustomer.getName();
+        int iIndex = rRequest.getConnectionIndex();
+        Set<Integer> subscribers = hmOrderSubscribers.computeIfAbsent(szName, szKey -> ConcurrentHashMap.newKeySet());
+        subscribers.add(iIndex);
+        if(!csComms.isConnected(iIndex)) {
+            subscribers.remove(iIndex);
+            return;
+        }
+        this.sendReply(rRequest, this.getCustomerOrders(szName));
+    }
+
+    //push a customer's current orders to every client subscribed to them
+    private void pushOrders(User uCustomer) {
+        if(uCustomer == null) return;
+        Set<Integer> subscribers = hmOrderSubscribers.get(uCustomer.getName());
+        if(subscribers == null || subscribers.isEmpty()) return;
+
+        Object[] oPush = new Object[]{new MessageHeader(Opcode.ORDERUPDATE), 0L, uCustomer.getName(), this.getCustomerOrders(uCustomer.getName())};
+        for(Integer iIndex : subscribers) {
+            this.csComms.sendMessage(iIndex, oPush);
+        }
+    }
+
+    //send the reply to a request back to the client that sent it, using the request's correlation ID
+    private void sendReply(Request rRequest, Object oPayload) {
+        this.csComms.sendReply(rRequest.getConnectionIndex(), rRequest.getCorrelation(), oPayload);
+    }
+
+    //register the handler for every opcode a client can send, which new operations are added to
+    //each handler takes the type of request its opcode is decoded as
+    private void registerCommands() {
+        crCommands.register(Opcode.REGISTER, Request.Registration.class, this::registerUser);
+        crCommands.register(Opcode.LOGIN, Request.Login.class, this::loginUser);
+        crCommands.register(Opcode.GETPOSTCODES, rRequest -> this.sendReply(rRequest, this.getPostcodes()));
+        crCommands.register(Opcode.GETDISHES, rRequest -> this.sendReply(rRequest, this.getStock().getMenuSnapshot()));
+        crCommands.register(Opcode.SYNCDISHES, Request.SyncCatalog.class, this::syncDishes);
+        crCommands.register(Opcode.SYNCPOSTCODES, Request.SyncCatalog.class, this::syncPostcodes);
+        crCommands.register(Opcode.GETORDERS, Request.UserRequest.class, this::getUserOrders);
+        crCommands.register(Opcode.QUERYORDERS, Request.QueryOrders.class, this::queryUserOrders);
+        crCommands.register(Opcode.CHECKOUT, Request.Checkout.class, this::checkoutBasket);
+        crCommands.register(Opcode.CANCELORDER, Request.CancelOrder.class, this::cancelOrder);
+        crCommands.register(Opcode.SUBSCRIBE, Request.UserRequest.class, this::subscribeOrders);
+    }
+
+    //get the dishes changed since the client's version of the menu
+    //a new client asks for every dish, which is the same for everyone, so it is sent from the encoded menu
+    private void syncDishes(Request.SyncCatalog rRequest) {
+        Long lSinceVersion = rRequest.getSinceVersion();
+        if(lSinceVersion == null) {
+            this.sendReply(rRequest, null);
+            return;
+        }
+        this.sendReply(rRequest, lSinceVersion == 0
+                ? this.getStock().getMenuDeltaSnapshot()
+                : this.getStock().getDishesDelta(lSinceVersion));
+    }
+
+    //get the postcodes changed since the client's version of them
+    private void syncPostcodes(Request.SyncCatalog rRequest) {
+        Long lSinceVersion = rRequest.getSinceVersion();
+        this.sendReply(rRequest, lSinceVersion == null ? null : this.getPostcodesDelta(lSinceVersion));
+    }
+
+    //method that processes the requests given to it by the users, through the handler registered for each opcode
+    //a request the server has no handler for, such as a reply sent the wrong way, is answered with an error
+    private void processMessage(Request rRequest) {
+        if(!crCommands.dispatch(rRequest)) {
+            this.csComms.sendError(rRequest.getConnectionIndex(), rRequest.getCorrelation(), "Unhandled opcode: " + rRequest.getOpcodeName());
+            return;
         }
         this.notifyUpdate();
     }
 
+    //the handlers for each opcode, with the number of requests each has handled and how long they took
+    public CommandRegistry getCommandRegistry() {
+        return this.crCommands;
+    }
+
     @Override
     public void addUpdateListener(UpdateListener listener) {
         updateListeners.add(listener);
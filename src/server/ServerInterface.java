@@ -286,6 +286,13 @@ public interface ServerInterface {
 	 */
 	public List<Order> getOrders();
 	
+	/**
+	 * Get one page of the orders matching a query, live and archived
+	 * @param query the filters, ordering and position of the page
+	 * @return page of matching orders
+	 */
+	public OrderPage getOrders(OrderQuery query);
+	
 	/**
 	 * Remove an order from the system
 	 * @param order order to remove
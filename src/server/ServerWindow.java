@@ -41,6 +41,15 @@ public class ServerWindow extends JFrame implements UpdateListener {
 	private DualPanel<Postcode> postcodePanel;
 	private ConfigurationPanel configurationPanel;
 
+	//Paging through the orders panel
+	private static final int ORDER_PAGE_SIZE = 100;
+	private long orderPageAfter;
+	private Deque<Long> orderPagesBefore = new ArrayDeque<Long>();
+	private volatile OrderPage orderPage;
+	private JButton previousOrders;
+	private JButton nextOrders;
+	private JLabel orderPageLabel;
+
 	/**
 	 * Create a new server window with all associated panels
 	 * @param server
@@ -51,7 +60,7 @@ public class ServerWindow extends JFrame implements UpdateListener {
 		server.addUpdateListener(this);
 
 		//Set up panels
-		orderPanel = new DualPanel<Order>(Order.class,() -> server.getOrders());
+		orderPanel = new DualPanel<Order>(Order.class,() -> this.getOrderPage().getOrders());
 		dishPanel = new DualPanel<Dish>(Dish.class,() -> server.getDishes());
 		ingredientPanel = new DualPanel<Ingredient>(Ingredient.class,() -> server.getIngredients());
 		supplierPanel = new DualPanel<Supplier>(Supplier.class,() -> server.getSuppliers());
@@ -60,6 +69,7 @@ public class ServerWindow extends JFrame implements UpdateListener {
 		userPanel = new DualPanel<User>(User.class,() -> server.getUsers());
 		postcodePanel = new DualPanel<Postcode>(Postcode.class,() -> server.getPostcodes());
 		configurationPanel = new ConfigurationPanel();
+		setupOrderPaging();
 
 		//Set up tabs
 		JTabbedPane tabs = new JTabbedPane();
@@ -140,6 +150,76 @@ public class ServerWindow extends JFrame implements UpdateListener {
 		postcodePanel.addProperty("Distance","Number");
 	}
 
+	/**
+	 * The page of orders shown in the orders panel, the live orders placed before the ones on the pages already passed, newest first
+	 * @return query for the orders panel
+	 */
+	private OrderQuery getLiveOrdersQuery() {
+		OrderQuery query = new OrderQuery(ORDER_PAGE_SIZE);
+		query.setNewestFirst(true);
+		query.setIncludeArchived(false);
+		query.setAfterId(orderPageAfter);
+		return query;
+	}
+
+	/**
+	 * Fetch the current page of orders, and enable the paging buttons for whether there are pages either side of it
+	 * @return the page of orders to show
+	 */
+	private synchronized OrderPage getOrderPage() {
+		OrderPage page = server.getOrders(getLiveOrdersQuery());
+		//Go back a page if every order on this one has gone, such as once they have been archived
+		while(page.getOrders().isEmpty() && !orderPagesBefore.isEmpty()) {
+			orderPageAfter = orderPagesBefore.pop();
+			page = server.getOrders(getLiveOrdersQuery());
+		}
+		orderPage = page;
+
+		int pageNumber = orderPagesBefore.size() + 1;
+		boolean hasPrevious = !orderPagesBefore.isEmpty();
+		boolean hasNext = page.hasMore();
+		SwingUtilities.invokeLater(() -> {
+			orderPageLabel.setText("Page " + pageNumber);
+			previousOrders.setEnabled(hasPrevious);
+			nextOrders.setEnabled(hasNext);
+		});
+		return page;
+	}
+
+	/**
+	 * Add the buttons to move between pages of orders to the top of the orders panel
+	 */
+	private void setupOrderPaging() {
+		previousOrders = new JButton("Newer");
+		nextOrders = new JButton("Older");
+		orderPageLabel = new JLabel("Page 1", SwingConstants.CENTER);
+		previousOrders.setEnabled(false);
+		nextOrders.setEnabled(false);
+
+		previousOrders.addActionListener(e -> {
+			synchronized(this) {
+				if(orderPagesBefore.isEmpty()) return;
+				orderPageAfter = orderPagesBefore.pop();
+			}
+			orderPanel.refresh();
+		});
+		nextOrders.addActionListener(e -> {
+			synchronized(this) {
+				OrderPage page = orderPage;
+				if(page == null || !page.hasMore()) return;
+				orderPagesBefore.push(orderPageAfter);
+				orderPageAfter = page.getLastId();
+			}
+			orderPanel.refresh();
+		});
+
+		JPanel paging = new JPanel(new GridLayout(1,3));
+		paging.add(previousOrders);
+		paging.add(orderPageLabel);
+		paging.add(nextOrders);
+		orderPanel.add(paging,BorderLayout.NORTH);
+	}
+
 	/**
 	 * Setup the actions linked to the buttons in the user interface
 	 */
@@ -1,7 +1,6 @@
 package server;
 
 import common.Dish;
-import common.Ingredient;
 import common.Model;
 import common.StockManagement;
 
@@ -17,6 +16,8 @@ public class Staff extends Model implements Runnable {
     private String szName;
     private String szStatus;
     private StockManagement smStock;
+    private volatile boolean bStopping;
+    private volatile boolean bBusy;
     private final int iUpperBound = 60;
     private final int iLowerBound = 20;
 
@@ -57,65 +58,49 @@ public class Staff extends Model implements Runnable {
         this.smStock = smStock;
     }
 
+    //ask the staff to stop once they have finished the dish they are making
+    public void stop() {
+        this.bStopping = true;
+    }
+
+    //whether the staff are part way through making a dish
+    public boolean isBusy() {
+        return this.bBusy;
+    }
+
     //main run code
     @Override
     public void run() {
         Random r = new Random();
-        //infinitely loop
-        while(true) {
-            //if no dishes left to make, return to a wait state
-            if(this.getStockManagement().getDishesQueue().isEmpty()) {
-                synchronized (this.getStockManagement().getDishesList()) {
-                    try {
-                        this.getStockManagement().getDishesList().wait();
-                    }
-                    catch (InterruptedException ie) {
-                        //if interrupted, kill the thread
-                        Thread.currentThread().interrupt();
-                        return;
-                    }
-                }
+        //loop until asked to stop
+        while(!bStopping) {
+            //wait until there is a dish that can be made with the ingredients in stock, which uses them up
+            Dish dCurrentDish;
+            try {
+                dCurrentDish = this.getStockManagement().takeDishToMake();
+            }
+            catch (InterruptedException ie) {
+                //if interrupted, kill the thread
+                Thread.currentThread().interrupt();
+                return;
             }
 
-            //whilst there are dishes to make, make dishes
-            while(!this.getStockManagement().getDishesQueue().isEmpty()) {
-                Dish dCurrentDish = null;
-                boolean ingredientsPresent = true;
-                //check if there is enough ingredients for the dish, if not then do not make dish
-                synchronized(this.getStockManagement().getDishesQueue()) {
-                    dCurrentDish = this.getStockManagement().getDishesQueue().peek();
-                    for(Ingredient i : dCurrentDish.getRecipe().keySet()) {
-                        if(dCurrentDish.getRecipe().get(i).intValue() > this.getStockManagement().getStockLevel(i).intValue()) {
-                            ingredientsPresent = false;
-                        }
-                    }
-                    if(ingredientsPresent) {
-                        try {
-                            dCurrentDish = this.getStockManagement().getDishesQueue().take();
-                        }
-                        catch (InterruptedException ie) {
-                            Thread.currentThread().interrupt();
-                            return;
-                        }
-                    }
-                }
-
-                //if enough ingredients
-                if(ingredientsPresent) {
-                    for(Ingredient i : dCurrentDish.getRecipe().keySet()) {
-                        this.getStockManagement().setStockLevel(i
-                                , this.getStockManagement().getStockLevel(i).intValue() - dCurrentDish.getRecipe().get(i).intValue());
-                    }
-                    try {
-                        this.setStatus("Making Dish: " + dCurrentDish.getName());
-                        Thread.currentThread().sleep(1000 * (r.nextInt((iUpperBound - iLowerBound) + 1) + iLowerBound));
-                        this.getStockManagement().addToStock(dCurrentDish);
-                        this.setStatus("Idle");
-                    }
-                    catch (InterruptedException ie) {
-                        break;
-                    }
-                }
+            try {
+                bBusy = true;
+                this.setStatus("Making Dish: " + dCurrentDish.getName());
+                Thread.sleep(1000 * (r.nextInt((iUpperBound - iLowerBound) + 1) + iLowerBound));
+                this.getStockManagement().addToStock(dCurrentDish);
+                this.setStatus("Idle");
+            }
+            catch (InterruptedException ie) {
+                //put the unfinished dish and its ingredients back for another member of staff
+                this.getStockManagement().returnDishToMake(dCurrentDish);
+                this.setStatus("Idle");
+                Thread.currentThread().interrupt();
+                return;
+            }
+            finally {
+                bBusy = false;
             }
         }
     }